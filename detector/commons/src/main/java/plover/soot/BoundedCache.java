@@ -0,0 +1,136 @@
+package plover.soot;
+
+import java.util.*;
+
+/**
+ * A least recently used cache with a weight budget, e.g., the per-method CFGs and DEF/USE analyses.
+ * Entries weigh 1 if no {@link Weigher} is given, so the budget is the number of entries. The most recently
+ * used entry is always kept, even if it exceeds the budget alone.
+ * Counts hits, misses, evictions and rebuilds, i.e., misses of keys evicted before. Thread safe.
+ */
+public class BoundedCache<K, V> {
+	/** Estimated weight of a cached value */
+	public interface Weigher<V> {
+		long weigh(V value);
+	}
+
+	/** budget of an unbounded cache */
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+
+	private final String _name;
+	private final long _maxWeight;
+	private final Weigher<? super V> _weigher;
+	private final LinkedHashMap<K, V> _entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final Map<K, Long> _weights = new HashMap<K, Long>();
+	private final Set<K> _evicted = new HashSet<K>();
+	private long _weight;
+
+	private long _hits;
+	private long _misses;
+	private long _rebuilds;
+	private long _evictions;
+
+	/**
+	 * @param maxWeight budget of the total weight, {@link #UNBOUNDED} to never evict
+	 * @param weigher   weight of the values, null if each value weighs 1
+	 */
+	public BoundedCache(String name, long maxWeight, Weigher<? super V> weigher) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("Budget of cache " + name + " must be positive: " + maxWeight);
+		}
+		this._name = name;
+		this._maxWeight = maxWeight;
+		this._weigher = weigher;
+	}
+
+	/** The cached value, null on a miss. */
+	public synchronized V get(K key) {
+		V value = _entries.get(key);
+		if (value != null) {
+			_hits++;
+		} else {
+			_misses++;
+			if (_evicted.contains(key)) {
+				_rebuilds++;
+			}
+		}
+		return value;
+	}
+
+	/** The cached value without counting or updating the access order, null if absent. */
+	public synchronized V peek(K key) {
+		// LinkedHashMap.get updates the access order, containsKey does not
+		return _entries.containsKey(key) ? _entries.get(key) : null;
+	}
+
+	/**
+	 * Cache the value and evict the least recently used entries over the budget.
+	 * @return the value cached for the key, the existing one if another thread put it first
+	 */
+	public synchronized V put(K key, V value) {
+		V existing = peek(key);
+		if (existing != null) {
+			_entries.get(key);
+			return existing;
+		}
+		long weight = _weigher == null ? 1 : _weigher.weigh(value);
+		_entries.put(key, value);
+		_weights.put(key, weight);
+		_evicted.remove(key);
+		_weight += weight;
+
+		Iterator<Map.Entry<K, V>> it = _entries.entrySet().iterator();
+		while (_weight > _maxWeight && _entries.size() > 1) {
+			K eldest = it.next().getKey();
+			it.remove();
+			_weight -= _weights.remove(eldest);
+			_evicted.add(eldest);
+			_evictions++;
+		}
+		return value;
+	}
+
+	/** Release the cached value, a later miss of the key is not counted as a rebuild. */
+	public synchronized void remove(K key) {
+		if (_entries.remove(key) != null) {
+			_weight -= _weights.remove(key);
+		}
+	}
+
+	public synchronized void clear() {
+		_entries.clear();
+		_weights.clear();
+		_evicted.clear();
+		_weight = 0;
+	}
+
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	public synchronized long getWeight() {
+		return _weight;
+	}
+
+	public synchronized long getHits() {
+		return _hits;
+	}
+
+	public synchronized long getMisses() {
+		return _misses;
+	}
+
+	public synchronized long getRebuilds() {
+		return _rebuilds;
+	}
+
+	public synchronized long getEvictions() {
+		return _evictions;
+	}
+
+	public synchronized String toString() {
+		return _name + ": " + _entries.size() + " entries, weight " + _weight
+				+ (_maxWeight == UNBOUNDED ? "" : "/" + _maxWeight) + ", " + _hits + " hits, " + _misses
+				+ " misses, " + _rebuilds + " rebuilds, " + _evictions + " evictions";
+	}
+}
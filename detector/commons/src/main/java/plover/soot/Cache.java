@@ -27,7 +27,7 @@ public class Cache {
      * Get the possible instance fields of a class, including fields declared in the class
      * definition and fields of super classes.
      */
-	public Set<SootField> getAllInstanceFields(SootClass cls){
+	public synchronized Set<SootField> getAllInstanceFields(SootClass cls){
     	Set fields = _class2fields.get(cls);
     	if(fields==null){
     		fields = SootUtils.findAllInstanceFields(cls);
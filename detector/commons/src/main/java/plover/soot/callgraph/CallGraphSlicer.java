@@ -0,0 +1,263 @@
+package plover.soot.callgraph;
+
+import plover.soot.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.*;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.VirtualCalls;
+import soot.options.Options;
+
+import java.util.*;
+
+/**
+ * Slice the program before Spark to the methods the refined call graph can contain.
+ * The slice is the methods reachable from the entry points over an RTA call graph whose edges are filtered by
+ * the refiner as {@link SimpleCallGraphFilter#refine} does, plus the static initializers of the classes they use,
+ * which initialize the static fields. A virtual call is dispatched on the classes instantiated in the slice, the only
+ * ones Spark allocates once the other methods are excluded, so the refined call graph of Spark stays in the slice.
+ * The other concrete methods are marked phantom while Spark runs, so their bodies are neither jimplified nor added
+ * to the pointer assignment graph, and restored afterwards.
+ * <p>
+ * The objects that flow only through the excluded methods, e.g., the ones allocated by threads started implicitly
+ * or by methods called over an ignored edge, are missing from the points-to sets and the call graph.
+ */
+public class CallGraphSlicer {
+    public static final Logger LOGGER = LoggerFactory.getLogger(CallGraphSlicer.class);
+
+    private static final String CLINIT = "void <clinit>()";
+
+    private final SimpleCallGraphFilter _refiner;
+    private final FastHierarchy _hierarchy = Scene.v().getOrMakeFastHierarchy();
+
+    private Set<SootMethod> _slice;
+    private List<SootMethod> _excluded = Collections.emptyList();
+
+    // worklist of slice()
+    private Stack<SootMethod> _stack;
+    private Set<SootClass> _initialized;
+    private Set<SootClass> _instantiated;
+    /** virtual call sites by the class of the receiver type */
+    private Map<SootClass, List<Edge>> _sites;
+    /** instantiated classes by their super types, including themselves */
+    private Map<SootClass, List<SootClass>> _subclasses;
+
+    public CallGraphSlicer(SimpleCallGraphFilter refiner) {
+        this._refiner = refiner;
+    }
+
+    /**
+     * Methods reachable from the entry points over the RTA call graph filtered by the refiner. The bodies of the
+     * methods in the slice are retrieved, the others are left untouched.
+     */
+    public Set<SootMethod> slice() {
+        if (_slice != null) {
+            return _slice;
+        }
+        Date startTime = new Date();
+        _slice = new HashSet<SootMethod>();
+        _stack = new Stack<SootMethod>();
+        _initialized = new HashSet<SootClass>();
+        _instantiated = new HashSet<SootClass>();
+        _sites = new HashMap<SootClass, List<Edge>>();
+        _subclasses = new HashMap<SootClass, List<SootClass>>();
+
+        // string and class constants
+        instantiate(Scene.v().getSootClass("java.lang.String"));
+        instantiate(Scene.v().getSootClass("java.lang.Class"));
+        _stack.addAll(Scene.v().getEntryPoints());
+        while (!_stack.isEmpty()) {
+            SootMethod m = _stack.pop();
+            if (_slice.add(m) && m.isConcrete()) {
+                process(m);
+            }
+        }
+
+        int sites = 0;
+        for (List<Edge> l : _sites.values()) {
+            sites += l.size();
+        }
+        LOGGER.info("[Call Graph] Slice {} methods from {} entry points in {}, {} classes instantiated, "
+                        + "{} virtual call sites", _slice.size(), Scene.v().getEntryPoints().size(),
+                Utils.getTimeConsumed(startTime, new Date()), _instantiated.size(), sites);
+        _stack = null;
+        _initialized = null;
+        _instantiated = null;
+        _sites = null;
+        _subclasses = null;
+        return _slice;
+    }
+
+    /**
+     * Mark the concrete methods out of the slice phantom. Call {@link #restore()} once the points-to analysis
+     * is built.
+     * @return number of the methods marked phantom
+     */
+    public int exclude() {
+        Set<SootMethod> slice = slice();
+        List<SootMethod> excluded = new ArrayList<SootMethod>();
+        for (SootClass cls : new ArrayList<SootClass>(Scene.v().getClasses())) {
+            for (SootMethod m : cls.getMethods()) {
+                if (m.isConcrete() && !slice.contains(m)) {
+                    excluded.add(m);
+                }
+            }
+        }
+
+        // methods of non-phantom classes can only be marked phantom if phantom elements are allowed
+        boolean allowPhantomElms = Options.v().allow_phantom_elms();
+        Options.v().set_allow_phantom_elms(true);
+        try {
+            for (SootMethod m : excluded) {
+                m.setPhantom(true);
+            }
+        } finally {
+            Options.v().set_allow_phantom_elms(allowPhantomElms);
+        }
+        _excluded = excluded;
+        LOGGER.info("[Call Graph] {}", this);
+        return excluded.size();
+    }
+
+    /** Unmark the methods marked phantom by {@link #exclude()}. */
+    public void restore() {
+        for (SootMethod m : _excluded) {
+            m.setPhantom(false);
+        }
+        _excluded = Collections.emptyList();
+    }
+
+    private void process(SootMethod m) {
+        Body body;
+        try {
+            body = m.retrieveActiveBody();
+        } catch (RuntimeException e) {
+            LOGGER.warn("[Call Graph] Can not retrieve the body of {}", m, e);
+            return;
+        }
+
+        for (Unit u : body.getUnits()) {
+            Stmt stmt = (Stmt) u;
+            if (stmt.containsFieldRef() && stmt.getFieldRef() instanceof StaticFieldRef) {
+                addClinits(stmt.getFieldRef().getFieldRef().declaringClass());
+            }
+            for (ValueBox box : stmt.getUseBoxes()) {
+                if (box.getValue() instanceof NewExpr) {
+                    SootClass cls = ((NewExpr) box.getValue()).getBaseType().getSootClass();
+                    addClinits(cls);
+                    instantiate(cls);
+                }
+            }
+            if (!stmt.containsInvokeExpr()) {
+                continue;
+            }
+
+            InvokeExpr ie = stmt.getInvokeExpr();
+            SootMethod callee = ie.getMethodRef().tryResolve();
+            if (callee == null) {
+                continue;
+            }
+            if (ie instanceof StaticInvokeExpr) {
+                addClinits(callee.getDeclaringClass());
+                addTarget(new Edge(m, stmt, callee));
+            } else if (ie instanceof SpecialInvokeExpr) {
+                SootMethod tgt = _hierarchy.resolveSpecialDispatch((SpecialInvokeExpr) ie, m);
+                if (tgt != null) {
+                    addTarget(new Edge(m, stmt, tgt));
+                }
+            } else {
+                // dispatch on the declared type of the receiver, the types it may point to are its subtypes
+                SootClass cls = callee.getDeclaringClass();
+                Type baseType = ((InstanceInvokeExpr) ie).getBase().getType();
+                if (baseType instanceof RefType) {
+                    cls = ((RefType) baseType).getSootClass();
+                }
+                Edge site = new Edge(m, stmt, callee);
+                List<Edge> sites = _sites.get(cls);
+                if (sites == null) {
+                    sites = new ArrayList<Edge>();
+                    _sites.put(cls, sites);
+                }
+                sites.add(site);
+                List<SootClass> subclasses = _subclasses.get(cls);
+                if (subclasses != null) {
+                    for (SootClass sub : subclasses) {
+                        dispatch(site, sub);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Dispatch the call sites on the super types of the class once it is instantiated */
+    private void instantiate(SootClass cls) {
+        if (cls.isPhantom() || !cls.isConcrete() || !_instantiated.add(cls)) {
+            return;
+        }
+        for (SootClass superType : getSuperTypes(cls)) {
+            List<SootClass> subclasses = _subclasses.get(superType);
+            if (subclasses == null) {
+                subclasses = new ArrayList<SootClass>();
+                _subclasses.put(superType, subclasses);
+            }
+            subclasses.add(cls);
+            List<Edge> sites = _sites.get(superType);
+            if (sites != null) {
+                for (Edge site : sites) {
+                    dispatch(site, cls);
+                }
+            }
+        }
+    }
+
+    private void dispatch(Edge site, SootClass receiver) {
+        // the same resolution as Spark, unresolved calls of incomplete classes are skipped
+        SootMethod tgt = VirtualCalls.v().resolveNonSpecial(receiver.getType(),
+                site.tgt().getNumberedSubSignature());
+        if (tgt != null) {
+            addTarget(new Edge(site.src(), site.srcStmt(), tgt));
+        }
+    }
+
+    private void addTarget(Edge edge) {
+        SootMethod tgt = edge.tgt();
+        if (!_slice.contains(tgt) && !_refiner.isEdgeIgnored(edge)) {
+            _stack.add(tgt);
+        }
+    }
+
+    /** The class, its super classes and all the interfaces they implement */
+    private static Set<SootClass> getSuperTypes(SootClass cls) {
+        Set<SootClass> superTypes = new HashSet<SootClass>();
+        Stack<SootClass> stack = new Stack<SootClass>();
+        stack.add(cls);
+        while (!stack.isEmpty()) {
+            SootClass c = stack.pop();
+            if (!superTypes.add(c)) {
+                continue;
+            }
+            if (c.hasSuperclass()) {
+                stack.add(c.getSuperclass());
+            }
+            stack.addAll(c.getInterfaces());
+        }
+        return superTypes;
+    }
+
+    /** Static initializers of the class and its super classes, as the CLINIT edges of Soot's call graph */
+    private void addClinits(SootClass cls) {
+        while (cls != null && _initialized.add(cls)) {
+            SootMethod clinit = cls.getMethodUnsafe(CLINIT);
+            if (clinit != null) {
+                _stack.add(clinit);
+            }
+            cls = cls.hasSuperclass() ? cls.getSuperclass() : null;
+        }
+    }
+
+    public String toString() {
+        return "Slice: " + (_slice == null ? 0 : _slice.size()) + " methods, " + _excluded.size()
+                + " methods marked phantom";
+    }
+}
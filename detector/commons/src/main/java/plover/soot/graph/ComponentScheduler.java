@@ -0,0 +1,158 @@
+package plover.soot.graph;
+
+import soot.toolkits.graph.DirectedGraph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a task on the nodes of a graph with a pool of threads, e.g., on the strongly connected components of
+ * the call graph given by {@link plover.soot.SootUtils#getSCCGraphFast}.
+ * Bottom-up, a node is ready once all its successors are done, so the summaries of the callee components are
+ * available when a component is analyzed. Each node counts its successors not done yet, and a finished node
+ * submits the predecessors whose count drops to zero.
+ * Dependencies follow the given order: only successors before a node in the order are waited for, so self loops
+ * and cycles never block. With a single thread the nodes are run one by one in the order.
+ */
+public class ComponentScheduler<N> {
+	/** Work on a node, the nodes it depends on are done. */
+	public interface Task<N> {
+		void run(N node);
+	}
+
+	private final List<N> _order;
+	private final int _threads;
+	/** predecessors waiting for each node, by position in the order */
+	private final int[][] _waiters;
+	/** number of successors each node waits for, by position in the order */
+	private final int[] _dependencies;
+
+	/**
+	 * @param order   nodes to run, successors first, e.g., the reversed pseudo topological order
+	 * @param threads number of threads, the nodes are run in the calling thread if it is less than 2
+	 */
+	public ComponentScheduler(DirectedGraph<N> graph, List<N> order, int threads) {
+		this._order = order;
+		this._threads = threads;
+
+		int size = order.size();
+		Map<N, Integer> node2index = new HashMap<N, Integer>(size * 2 + 1);
+		for (int i = 0; i < size; i++) {
+			node2index.put(order.get(i), i);
+		}
+		List<List<Integer>> waiters = new ArrayList<List<Integer>>(size);
+		for (int i = 0; i < size; i++) {
+			waiters.add(new ArrayList<Integer>(2));
+		}
+		_dependencies = new int[size];
+		for (int i = 0; i < size; i++) {
+			Set<Integer> succs = new HashSet<Integer>();
+			for (N succ : graph.getSuccsOf(order.get(i))) {
+				Integer j = node2index.get(succ);
+				if (j != null && j < i && succs.add(j)) {
+					waiters.get(j).add(i);
+				}
+			}
+			_dependencies[i] = succs.size();
+		}
+		_waiters = new int[size][];
+		for (int i = 0; i < size; i++) {
+			List<Integer> w = waiters.get(i);
+			_waiters[i] = new int[w.size()];
+			for (int k = 0; k < _waiters[i].length; k++) {
+				_waiters[i][k] = w.get(k);
+			}
+		}
+	}
+
+	public List<N> getOrder() {
+		return _order;
+	}
+
+	/** Run the task on each node after its successors. */
+	public void runBottomUp(Task<N> task) {
+		run(task, true);
+	}
+
+	/** Run the task on each node regardless of the dependencies, for work local to the nodes. */
+	public void runAll(Task<N> task) {
+		run(task, false);
+	}
+
+	private void run(final Task<N> task, final boolean ordered) {
+		if (_threads < 2 || _order.size() < 2) {
+			for (N node : _order) {
+				task.run(node);
+			}
+			return;
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(_threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ComponentScheduler-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final AtomicIntegerArray pending = new AtomicIntegerArray(_dependencies);
+		final CountDownLatch done = new CountDownLatch(_order.size());
+		// the first failure, later nodes are skipped but still counted down so that the run ends
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		class NodeRun implements Runnable {
+			private final int index;
+
+			NodeRun(int index) {
+				this.index = index;
+			}
+
+			public void run() {
+				try {
+					if (failure.get() == null) {
+						task.run(_order.get(index));
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					if (ordered) {
+						for (int waiter : _waiters[index]) {
+							if (pending.decrementAndGet(waiter) == 0) {
+								executor.execute(new NodeRun(waiter));
+							}
+						}
+					}
+					done.countDown();
+				}
+			}
+		}
+
+		try {
+			for (int i = 0; i < _order.size(); i++) {
+				if (!ordered || _dependencies[i] == 0) {
+					executor.execute(new NodeRun(i));
+				}
+			}
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the components", e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Throwable e = failure.get();
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		if (e != null) {
+			throw new RuntimeException(e);
+		}
+	}
+}
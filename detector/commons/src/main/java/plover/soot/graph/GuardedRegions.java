@@ -0,0 +1,236 @@
+package plover.soot.graph;
+
+import plover.soot.hammock.CFGExit;
+import soot.Unit;
+import soot.jimple.IfStmt;
+import soot.toolkits.graph.UnitGraph;
+
+import java.util.*;
+
+/**
+ * Regions guarded by the branches of each IfStmt in a CFG.
+ * The reachable units of a branch are the units forward reachable from the branch successor without passing a back
+ * edge of loops. The two branches of an IfStmt merge at the first unit, in body order, reachable from both of them.
+ * The region of a branch is its reachable units before the merge point. If the branches only meet at the exit of
+ * the CFG, the region of a branch is all its reachable units.
+ * <p>
+ * Each unit is labeled with the branches reaching it by a forward propagation of bit sets over the CFG, instead of
+ * walking the CFG from every branch. A first propagation finds the merge points, a second one stops each branch at
+ * its merge point and gives the regions, and the IfStmts controlling each unit at the same time.
+ */
+public class GuardedRegions {
+    private UnitGraph cfg;
+    private Collection<Unit> backEdges;
+    /* units of the CFG in body order, followed by the units out of the body, e.g., the exit */
+    private List<Unit> units = new ArrayList<Unit>();
+    private Map<Unit, Integer> unit2index = new HashMap<Unit, Integer>();
+    /* IfStmts and the first branch of each, branches of an IfStmt are numbered consecutively in successor order */
+    private List<Unit> branches = new ArrayList<Unit>();
+    private Map<Unit, Integer> firstBranch = new HashMap<Unit, Integer>();
+    /* IfStmt of each branch */
+    private List<Unit> branch2if = new ArrayList<Unit>();
+    /* merge point of each IfStmt, null if the branches merge at the exit */
+    private Map<Unit, Unit> mergePoints = new HashMap<Unit, Unit>();
+    /* region of each branch, key is IfStmt, value is the regions of its successors in order */
+    private Map<Unit, List<Set<Unit>>> regions = new HashMap<Unit, List<Set<Unit>>>();
+    /* IfStmts guarding each unit */
+    private Map<Unit, List<Unit>> controllingBranches = new HashMap<Unit, List<Unit>>();
+
+    /**
+     * @param backEdges source units of loop back edges, regions do not pass them
+     */
+    public GuardedRegions(UnitGraph cfg, Collection<Unit> backEdges) {
+        this.cfg = cfg;
+        this.backEdges = backEdges instanceof Set ? backEdges : new HashSet<Unit>(backEdges);
+        build();
+    }
+
+    private void build() {
+        Set<Unit> nodes = new HashSet<Unit>();
+        for (Unit unit : cfg) {
+            nodes.add(unit);
+        }
+        for (Unit unit : cfg.getBody().getUnits()) {
+            if (nodes.contains(unit)) {
+                index(unit);
+            }
+        }
+        for (Unit unit : cfg) {
+            index(unit);
+        }
+        for (Unit unit : units) {
+            if (unit instanceof IfStmt) {
+                firstBranch.put(unit, branch2if.size());
+                branches.add(unit);
+                for (int i = 0; i < cfg.getSuccsOf(unit).size(); i++) {
+                    branch2if.add(unit);
+                }
+            }
+        }
+        if (branches.isEmpty()) {
+            return;
+        }
+
+        // 1. reachable units of each branch, the merge point is the first unit reachable from both branches
+        BitSet[] reachables = propagate(new BitSet[units.size()]);
+        BitSet[] stops = new BitSet[units.size()];
+        for (int index = 0; index < units.size(); index++) {
+            Unit unit = units.get(index);
+            BitSet reachable = reachables[index];
+            if (reachable == null || unit == CFGExit.v()) {
+                continue;
+            }
+            for (int branch = reachable.nextSetBit(0); branch >= 0; branch = reachable.nextSetBit(branch + 1)) {
+                Unit ifStmt = branch2if.get(branch);
+                int first = firstBranch.get(ifStmt);
+                if (branch == first && cfg.getSuccsOf(ifStmt).size() == 2 && reachable.get(first + 1)
+                        && !mergePoints.containsKey(ifStmt)) {
+                    mergePoints.put(ifStmt, unit);
+                    if (stops[index] == null) {
+                        stops[index] = new BitSet();
+                    }
+                    stops[index].set(first, first + 2);
+                }
+            }
+        }
+
+        // 2. regions of each branch, which stop at the merge point
+        BitSet[] labels = propagate(stops);
+        for (Unit ifStmt : branches) {
+            int count = cfg.getSuccsOf(ifStmt).size();
+            List<Set<Unit>> branchRegions = new ArrayList<Set<Unit>>(count);
+            for (int i = 0; i < count; i++) {
+                branchRegions.add(new HashSet<Unit>());
+            }
+            regions.put(ifStmt, branchRegions);
+        }
+        for (int index = 0; index < units.size(); index++) {
+            BitSet label = labels[index];
+            if (label == null) {
+                continue;
+            }
+            Unit unit = units.get(index);
+            List<Unit> controlling = new ArrayList<Unit>(2);
+            for (int branch = label.nextSetBit(0); branch >= 0; branch = label.nextSetBit(branch + 1)) {
+                Unit ifStmt = branch2if.get(branch);
+                regions.get(ifStmt).get(branch - firstBranch.get(ifStmt)).add(unit);
+                if (!controlling.contains(ifStmt)) {
+                    controlling.add(ifStmt);
+                }
+            }
+            if (!controlling.isEmpty()) {
+                controllingBranches.put(unit, controlling);
+            }
+        }
+    }
+
+    private void index(Unit unit) {
+        if (!unit2index.containsKey(unit)) {
+            unit2index.put(unit, units.size());
+            units.add(unit);
+        }
+    }
+
+    /**
+     * Label each unit with the branches reaching it. A branch starts at its successor, and does not reach or pass
+     * a back edge, or a unit stopping it.
+     * @param stops branches stopped by each unit, null if none
+     * @return branches reaching each unit, null if none
+     */
+    private BitSet[] propagate(BitSet[] stops) {
+        int size = units.size();
+        BitSet[] in = new BitSet[size];
+        BitSet[] labels = new BitSet[size];
+        BitSet pending = new BitSet(size);
+        for (Unit ifStmt : branches) {
+            int branch = firstBranch.get(ifStmt);
+            for (Unit succ : cfg.getSuccsOf(ifStmt)) {
+                int index = unit2index.get(succ);
+                if (in[index] == null) {
+                    in[index] = new BitSet();
+                }
+                in[index].set(branch++);
+                pending.set(index);
+            }
+        }
+        // units are mostly visited after their predecessors in body order
+        int cursor = 0;
+        while (!pending.isEmpty()) {
+            int index = pending.nextSetBit(cursor);
+            if (index < 0) {
+                index = pending.nextSetBit(0);
+            }
+            pending.clear(index);
+            cursor = index + 1;
+            Unit unit = units.get(index);
+            if (backEdges.contains(unit)) {
+                continue;
+            }
+            BitSet label = (BitSet) in[index].clone();
+            if (stops[index] != null) {
+                label.andNot(stops[index]);
+            }
+            if (label.isEmpty() || label.equals(labels[index])) {
+                continue;
+            }
+            labels[index] = label;
+            List<Unit> succs = cfg.getSuccsOf(unit);
+            if (succs == null) {
+                continue;
+            }
+            for (Unit succ : succs) {
+                int succIndex = unit2index.get(succ);
+                BitSet succIn = in[succIndex];
+                if (succIn == null) {
+                    succIn = new BitSet();
+                    in[succIndex] = succIn;
+                }
+                int before = succIn.cardinality();
+                succIn.or(label);
+                if (succIn.cardinality() != before) {
+                    pending.set(succIndex);
+                }
+            }
+        }
+        return labels;
+    }
+
+    /** Whether the branches of the IfStmt merge before the exit of the CFG. */
+    public boolean hasMergePoint(Unit branch) {
+        return mergePoints.get(branch) != null;
+    }
+
+    /** First unit reachable from both branches of the IfStmt, null if the branches merge at the exit of the CFG. */
+    public Unit getMergePoint(Unit branch) {
+        return mergePoints.get(branch);
+    }
+
+    /** Region guarded by the branch of the IfStmt going to succ, null if succ is not a successor. */
+    public Set<Unit> getRegion(Unit branch, Unit succ) {
+        List<Set<Unit>> branchRegions = regions.get(branch);
+        if (branchRegions == null) {
+            return null;
+        }
+        int index = cfg.getSuccsOf(branch).indexOf(succ);
+        return index < 0 ? null : branchRegions.get(index);
+    }
+
+    /** Union of the regions of both branches, null if it is not an IfStmt. */
+    public Set<Unit> getGuardedUnits(Unit branch) {
+        List<Set<Unit>> branchRegions = regions.get(branch);
+        if (branchRegions == null) {
+            return null;
+        }
+        Set<Unit> result = new HashSet<Unit>();
+        for (Set<Unit> region : branchRegions) {
+            result.addAll(region);
+        }
+        return result;
+    }
+
+    /** IfStmts whose regions contain the unit. */
+    public List<Unit> getControllingBranches(Unit unit) {
+        List<Unit> branches = controllingBranches.get(unit);
+        return branches == null ? Collections.<Unit>emptyList() : branches;
+    }
+}
@@ -1,37 +1,54 @@
 package plover.soot.hammock;
 
-import plover.soot.SootUtils;
+import plover.soot.BoundedCache;
 import soot.Body;
 import soot.SootMethod;
 import soot.baf.BafBody;
 import soot.toolkits.graph.UnitGraph;
 
 
+/**
+ * Hammock CFGs of methods, built on demand and cached.
+ * The cache is bounded by the total number of units in the cached CFGs, the least recently used CFGs are evicted.
+ */
 public class HammockCFGProvider implements CFGProvider{
-	private UnitGraph[] _cfgs;
+	private BoundedCache<SootMethod, UnitGraph> _cfgs;
 	
 	public HammockCFGProvider(){
-		_cfgs = new UnitGraph[SootUtils.getMethodCount()];
+		this(BoundedCache.UNBOUNDED);
+	}
+
+	/**
+	 * @param maxUnits budget of the total number of units in the cached CFGs
+	 */
+	public HammockCFGProvider(long maxUnits){
+		_cfgs = new BoundedCache<SootMethod, UnitGraph>("CFG", maxUnits, new BoundedCache.Weigher<UnitGraph>() {
+			public long weigh(UnitGraph cfg) {
+				return cfg.size();
+			}
+		});
 	}
   
 	public UnitGraph getCFG(SootMethod m){
-		int id = m.getNumber();
-    	UnitGraph cfg = _cfgs[id];
+    	UnitGraph cfg = _cfgs.get(m);
     	
     	if(cfg==null){
     		 Body body=m.getActiveBody();
     	     if(body instanceof BafBody){
     	    	 throw new RuntimeException("BafBody is not supported.");
     	     }
-    	     cfg = new HammockCFG(body); 
-    	     _cfgs[id] = cfg;
+    	     cfg = _cfgs.put(m, new HammockCFG(body));
     	}
        
     	return cfg;
 	}
 	
 	public void release(SootMethod m){
-		int id = m.getNumber();
-    	_cfgs[id] = null;
+		_cfgs.remove(m);
+	}
+
+	/** Cache of the CFGs, for the hit and miss counters. */
+	public BoundedCache<SootMethod, UnitGraph> getCache(){
+		return _cfgs;
 	}
 }
@@ -0,0 +1,383 @@
+package plover.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the cost of analysis phases and the per-method time of the intra-procedural analyses,
+ * and dumps them as one JSON report per run.
+ * Recording is disabled by default, {@link #startPhase(String)} and {@link #recordMethod(String, String, long)}
+ * are no-ops until {@link #enable(boolean)} is invoked.
+ *
+ * For each phase, the following are recorded:
+ *   wall time, process CPU time, bytes allocated by live threads, GC time and count, heap used after the phase.
+ * Allocations of threads terminated during a phase are not counted.
+ */
+public class PerfRecorder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PerfRecorder.class);
+
+    /** Number of slowest methods kept for each kind of method timings. */
+    public static final int SLOWEST_METHODS = 20;
+
+    private static PerfRecorder _instance = new PerfRecorder();
+
+    public static PerfRecorder v() {
+        return _instance;
+    }
+
+    private volatile boolean _enabled = false;
+    /** Run GC before measuring the heap after a phase, so that the retained heap is reported. */
+    private boolean _forceGC = true;
+    private final List<PhaseRecord> _phases = Collections.synchronizedList(new ArrayList<PhaseRecord>());
+    private final ConcurrentMap<String, MethodTimings> _methodTimings = new ConcurrentHashMap<String, MethodTimings>();
+    /** points-to backend that produced the results of each method */
+    private final ConcurrentMap<String, String> _methodBackends = new ConcurrentHashMap<String, String>();
+
+    private PerfRecorder() {
+    }
+
+    /**
+     * @param forceGC run GC at the end of each phase to measure the retained heap,
+     *                the GC time is not counted in any phase
+     */
+    public void enable(boolean forceGC) {
+        this._forceGC = forceGC;
+        this._enabled = true;
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /** Start to record a phase, invoke {@link Phase#finish()} when the phase ends. */
+    public Phase startPhase(String name) {
+        return new Phase(name, _enabled);
+    }
+
+    /**
+     * Record the time spent on a method by an analysis.
+     * @param kind  kind of the analysis, e.g. RDAnalysis
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void recordMethod(String kind, String method, long nanos) {
+        if (!_enabled) {
+            return;
+        }
+        MethodTimings timings = _methodTimings.get(kind);
+        if (timings == null) {
+            MethodTimings newTimings = new MethodTimings();
+            timings = _methodTimings.putIfAbsent(kind, newTimings);
+            if (timings == null) {
+                timings = newTimings;
+            }
+        }
+        timings.add(method, nanos);
+    }
+
+    /**
+     * Record the points-to backend used for the results of a method, e.g. SPARK, or TYPE_BASED if Spark exceeded
+     * its budget.
+     */
+    public void recordBackend(String method, String backend) {
+        if (!_enabled) {
+            return;
+        }
+        _methodBackends.put(method, backend);
+    }
+
+    /** Number of methods of each points-to backend */
+    public Map<String, Integer> getBackendCounts() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (String backend : _methodBackends.values()) {
+            Integer count = counts.get(backend);
+            counts.put(backend, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    public List<PhaseRecord> getPhases() {
+        synchronized (_phases) {
+            return new ArrayList<PhaseRecord>(_phases);
+        }
+    }
+
+    public MethodTimings getMethodTimings(String kind) {
+        return _methodTimings.get(kind);
+    }
+
+    /** Write all recorded phases and method timings to a JSON file. */
+    public void writeReport(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        Writer writer = new FileWriter(file);
+        try {
+            writeReport(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    void writeReport(Writer out) throws IOException {
+        out.write("{\n  \"phases\": [");
+        List<PhaseRecord> phases = getPhases();
+        for (int i = 0; i < phases.size(); i++) {
+            PhaseRecord p = phases.get(i);
+            out.write(i == 0 ? "\n" : ",\n");
+            out.write("    {\"name\": " + quote(p.name)
+                    + ", \"wallNanos\": " + p.wallNanos
+                    + ", \"cpuNanos\": " + p.cpuNanos
+                    + ", \"allocatedBytes\": " + p.allocatedBytes
+                    + ", \"gcMillis\": " + p.gcMillis
+                    + ", \"gcCount\": " + p.gcCount
+                    + ", \"heapAfterBytes\": " + p.heapAfterBytes + "}");
+        }
+        out.write("\n  ],\n  \"methodTimings\": {");
+        List<String> kinds = new ArrayList<String>(_methodTimings.keySet());
+        Collections.sort(kinds);
+        for (int i = 0; i < kinds.size(); i++) {
+            MethodTimings t = _methodTimings.get(kinds.get(i));
+            out.write(i == 0 ? "\n" : ",\n");
+            synchronized (t) {
+                out.write("    " + quote(kinds.get(i)) + ": {"
+                        + "\"count\": " + t.count
+                        + ", \"totalNanos\": " + t.totalNanos
+                        + ", \"maxNanos\": " + t.maxNanos
+                        + ", \"histogramLog2Micros\": " + Arrays.toString(t.histogram)
+                        + ", \"slowest\": [");
+                List<MethodTime> slowest = t.getSlowest();
+                for (int j = 0; j < slowest.size(); j++) {
+                    MethodTime mt = slowest.get(j);
+                    out.write((j == 0 ? "\n" : ",\n") + "      {\"method\": " + quote(mt.method)
+                            + ", \"nanos\": " + mt.nanos + "}");
+                }
+                out.write(slowest.isEmpty() ? "]}" : "\n    ]}");
+            }
+        }
+        out.write("\n  },\n  \"backends\": {");
+        Map<String, Integer> counts = getBackendCounts();
+        int i = 0;
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            out.write((i++ == 0 ? "" : ", ") + quote(e.getKey()) + ": " + e.getValue());
+        }
+        out.write("},\n  \"methodBackends\": {");
+        List<String> methods = new ArrayList<String>(_methodBackends.keySet());
+        Collections.sort(methods);
+        for (int j = 0; j < methods.size(); j++) {
+            out.write((j == 0 ? "\n" : ",\n") + "    " + quote(methods.get(j)) + ": "
+                    + quote(_methodBackends.get(methods.get(j))));
+        }
+        out.write(methods.isEmpty() ? "}\n}\n" : "\n  }\n}\n");
+    }
+
+    private static String quote(String str) {
+        StringBuilder sb = new StringBuilder(str.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        // fall back to the time of the current thread
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /** Allocated bytes of each live thread, empty if not supported by the JVM. */
+    private static Map<Long, Long> getAllocatedBytes() {
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                long[] ids = sunThreads.getAllThreadIds();
+                long[] bytes = sunThreads.getThreadAllocatedBytes(ids);
+                for (int i = 0; i < ids.length; i++) {
+                    if (bytes[i] >= 0) {
+                        result.put(ids[i], bytes[i]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return {total collection time in milliseconds, total collection count} */
+    private static long[] getGCStats() {
+        long time = 0;
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return new long[]{time, count};
+    }
+
+    /** A phase being recorded. */
+    public class Phase {
+        private final String _name;
+        private final boolean _recording;
+        private long _startWall;
+        private long _startCpu;
+        private Map<Long, Long> _startAllocated;
+        private long[] _startGC;
+
+        Phase(String name, boolean recording) {
+            this._name = name;
+            this._recording = recording;
+            if (recording) {
+                _startGC = getGCStats();
+                _startAllocated = getAllocatedBytes();
+                _startCpu = getProcessCpuTime();
+                _startWall = System.nanoTime();
+            }
+        }
+
+        /** Stop recording the phase, should be invoked once. */
+        public void finish() {
+            if (!_recording) {
+                return;
+            }
+            long wall = System.nanoTime() - _startWall;
+            long cpu = getProcessCpuTime() - _startCpu;
+            long allocated = 0;
+            for (Map.Entry<Long, Long> e : getAllocatedBytes().entrySet()) {
+                Long start = _startAllocated.get(e.getKey());
+                allocated += e.getValue() - (start == null ? 0 : start);
+            }
+            long[] gc = getGCStats();
+            if (_forceGC) {
+                System.gc();
+            }
+            long heapAfter = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            PhaseRecord record = new PhaseRecord(_name, wall, cpu, allocated, gc[0] - _startGC[0],
+                    gc[1] - _startGC[1], heapAfter);
+            _phases.add(record);
+            LOGGER.info("[PERF] Phase {}: {}", _name, record);
+        }
+    }
+
+    /** Cost of a finished phase. */
+    public static class PhaseRecord {
+        public final String name;
+        public final long wallNanos;
+        /** -1 if CPU time is not supported */
+        public final long cpuNanos;
+        public final long allocatedBytes;
+        public final long gcMillis;
+        public final long gcCount;
+        public final long heapAfterBytes;
+
+        PhaseRecord(String name, long wallNanos, long cpuNanos, long allocatedBytes, long gcMillis, long gcCount,
+                    long heapAfterBytes) {
+            this.name = name;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+            this.heapAfterBytes = heapAfterBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "wall " + wallNanos / 1000000 + "ms, cpu " + cpuNanos / 1000000 + "ms, allocated "
+                    + allocatedBytes / (1024 * 1024) + "MB, gc " + gcMillis + "ms/" + gcCount + ", heap after "
+                    + heapAfterBytes / (1024 * 1024) + "MB";
+        }
+    }
+
+    /**
+     * Timings of one kind of per-method analysis.
+     * The i-th histogram bucket counts the methods taking [2^i, 2^(i+1)) microseconds, the first bucket also
+     * counts methods taking less than one microsecond.
+     */
+    public static class MethodTimings {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private final long[] histogram = new long[40];
+        // min-heap of the slowest methods
+        private final PriorityQueue<MethodTime> slowest = new PriorityQueue<MethodTime>();
+
+        synchronized void add(String method, long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            long micros = nanos / 1000;
+            int bucket = micros <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            histogram[Math.min(bucket, histogram.length - 1)]++;
+            if (slowest.size() < SLOWEST_METHODS) {
+                slowest.add(new MethodTime(method, nanos));
+            } else if (slowest.peek().nanos < nanos) {
+                slowest.poll();
+                slowest.add(new MethodTime(method, nanos));
+            }
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public synchronized long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public synchronized long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /** Slowest methods in descending order of time. */
+        public synchronized List<MethodTime> getSlowest() {
+            List<MethodTime> result = new ArrayList<MethodTime>(slowest);
+            Collections.sort(result, Collections.reverseOrder());
+            return result;
+        }
+    }
+
+    public static class MethodTime implements Comparable<MethodTime> {
+        public final String method;
+        public final long nanos;
+
+        MethodTime(String method, long nanos) {
+            this.method = method;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int compareTo(MethodTime o) {
+            return nanos < o.nanos ? -1 : (nanos == o.nanos ? 0 : 1);
+        }
+    }
+}
@@ -10,6 +10,10 @@ import soot.jimple.spark.SparkTransformer;
 import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.options.Options;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.util.*;
 
 public class SootExecutorUtil {
@@ -88,21 +92,145 @@ public class SootExecutorUtil {
     public static void doFastSparkPointsToAnalysis(Map<String,String> opt, boolean usePoem, CallGraphRefiner refiner) {
         opt.put("simulate-natives","false");
         opt.put("implicit-entry","false");
-        if (usePoem) {
-            SootUtils.doGeomPointsToAnalysis(opt);
-        } else {
-            SootUtils.doSparkPointsToAnalysis(opt);
-
+        // the phases are recorded even if Spark fails or is stopped
+        PerfRecorder.Phase phase = PerfRecorder.v().startPhase("Spark");
+        try {
+            if (usePoem) {
+                SootUtils.doGeomPointsToAnalysis(opt);
+            } else {
+                SootUtils.doSparkPointsToAnalysis(opt);
+            }
+        } finally {
+            phase.finish();
         }
         if (refiner != null) {
-            // simplify call graph, ignore method not reachable from main entry
-            // ignore implicit calls (except thread calls)
-            CallGraph cg = Scene.v().getCallGraph();
-            PointsToAnalysis ptsTo = Scene.v().getPointsToAnalysis();
-            CallGraph newCg = refiner.refine(cg);
-            Scene.v().setCallGraph(newCg);
-            Scene.v().setReachableMethods(null);   //update reachable methods
+            phase = PerfRecorder.v().startPhase("CallGraphRefinement");
+            try {
+                // simplify call graph, ignore method not reachable from main entry
+                // ignore implicit calls (except thread calls)
+                CallGraph cg = Scene.v().getCallGraph();
+                PointsToAnalysis ptsTo = Scene.v().getPointsToAnalysis();
+                CallGraph newCg = refiner.refine(cg);
+                Scene.v().setCallGraph(newCg);
+                Scene.v().setReachableMethods(null);   //update reachable methods
+            } finally {
+                phase.finish();
+            }
+        }
+    }
+
+    /** Interval to check the budget of Spark */
+    private static final long BUDGET_POLL_MILLIS = 500;
+    /** Stack of the thread running Spark, the jimplification of large methods recurses deeply */
+    private static final long SPARK_STACK_BYTES = 256L << 20;
+
+    /**
+     * Run {@link #doFastSparkPointsToAnalysis} in another thread within a budget of wall-clock time and heap.
+     * Spark can not be interrupted, so the thread is stopped once the budget is exceeded, and the partial points-to
+     * analysis and call graph are released. The heap is measured after the last GC of each pool, i.e., the live
+     * objects rather than the garbage.
+     * Threads can not be stopped on Java 20 and later. There the budget is only logged once exceeded, and Spark
+     * runs to the end unless it runs out of memory.
+     * <p>
+     * If Spark does not finish, the scene is left half-built: the bodies of the methods being jimplified may be
+     * incomplete, and the classes being resolved may miss members. Reset and reload the scene, see
+     * {@link SootUtils#resetSoot()}, before analyzing the program again.
+     * @param maxMillis    budget of wall-clock time, 0 for no limit
+     * @param maxHeapBytes budget of the heap, 0 for no limit
+     * @return whether Spark finished, otherwise there is no points-to analysis or call graph
+     */
+    public static boolean doBudgetedSparkPointsToAnalysis(final Map<String,String> opt, final boolean usePoem,
+                                                          final CallGraphRefiner refiner, long maxMillis,
+                                                          long maxHeapBytes) {
+        if (maxMillis <= 0 && maxHeapBytes <= 0) {
+            doFastSparkPointsToAnalysis(opt, usePoem, refiner);
+            return true;
+        }
+
+        final Throwable[] failure = new Throwable[1];
+        Thread spark = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    doFastSparkPointsToAnalysis(opt, usePoem, refiner);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, "Spark", SPARK_STACK_BYTES);
+        spark.setDaemon(true);
+
+        long start = System.currentTimeMillis();
+        String exceeded = null;
+        spark.start();
+        try {
+            while (spark.isAlive()) {
+                spark.join(BUDGET_POLL_MILLIS);
+                if (!spark.isAlive()) {
+                    break;
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                long heap = getLiveHeapBytes();
+                if (maxMillis > 0 && elapsed > maxMillis) {
+                    exceeded = "time budget " + maxMillis + "ms";
+                } else if (maxHeapBytes > 0 && heap > maxHeapBytes) {
+                    exceeded = "heap budget " + (maxHeapBytes >> 20) + "MB with " + (heap >> 20) + "MB";
+                }
+                if (exceeded != null) {
+                    if (stop(spark)) {
+                        spark.join();
+                    } else {
+                        LOGGER.warn("[Spark] exceeded the {} after {}ms, but it can not be stopped on Java {}",
+                                exceeded, elapsed, System.getProperty("java.specification.version"));
+                        exceeded = null;
+                        spark.join();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            stop(spark);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for Spark", e);
+        }
+
+        Throwable e = failure[0];
+        if (exceeded == null && e instanceof OutOfMemoryError) {
+            exceeded = "heap, " + e.getMessage();
+        } else if (exceeded == null && e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (exceeded == null && e instanceof Error) {
+            throw (Error) e;
+        }
+        if (exceeded != null) {
+            LOGGER.warn("[Spark] stopped after {}ms, exceeded the {}", System.currentTimeMillis() - start, exceeded);
+            Scene.v().releasePointsToAnalysis();
+            Scene.v().releaseCallGraph();
+            Scene.v().releaseReachableMethods();
+            return false;
+        }
+        return true;
+    }
+
+    /** Stop the thread, false if the JVM does not support it, i.e., Java 20 and later */
+    @SuppressWarnings("deprecation")
+    private static boolean stop(Thread thread) {
+        try {
+            thread.stop();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /** Used heap after the last GC of each heap pool */
+    private static long getLiveHeapBytes() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (usage != null) {
+                used += usage.getUsed();
+            }
         }
+        return used;
     }
 
     public static void doSparkPointsToAnalysis(Map<String,String> opt) {
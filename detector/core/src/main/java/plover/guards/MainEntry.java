@@ -1,12 +1,26 @@
 package plover.guards;
 
 import com.google.common.collect.Ordering;
+import plover.guards.result.OverheadRecord;
+import plover.guards.result.ResultFormat;
+import plover.guards.result.ResultSink;
+import plover.soot.Global;
+import plover.soot.SootUtils;
+import plover.soot.callgraph.CallGraphSlicer;
 import plover.soot.callgraph.SimpleCallGraphFilter;
+import plover.sootex.du.ConcurrentDUQuery;
 import plover.sootex.du.DUBuilder;
+import plover.sootex.du.IGlobalDUQuery;
 import plover.sootex.du.IReachingDUQuery;
 import plover.sootex.ptsto.IPtsToQuery;
+import plover.sootex.ptsto.PointsToAnalysisType;
+import plover.sootex.ptsto.PtsToHelper;
 import plover.sootex.ptsto.SparkPtsToQuery;
+import plover.sootex.ptsto.TypeBasedPtsToQuery;
+import plover.sootex.sideeffect.AnalysisSnapshot;
 import plover.sootex.sideeffect.FastEscapeAnalysis;
+import plover.sootex.sideeffect.ILocalityQuery;
+import plover.sootex.sideeffect.LibrarySummaries;
 import plover.sootex.sideeffect.MustAliasIdentityLocalsQuery;
 import plover.sootex.sideeffect.SideEffectAnalysis;
 import plover.soot.hammock.CFGEntry;
@@ -14,6 +28,7 @@ import plover.soot.hammock.CFGExit;
 import plover.soot.hammock.CFGProvider;
 import plover.soot.hammock.HammockCFGProvider;
 import plover.utils.Constants;
+import plover.utils.PerfRecorder;
 import plover.utils.RunConfig;
 import plover.utils.SootExecutorUtil;
 import org.slf4j.Logger;
@@ -22,10 +37,13 @@ import soot.*;
 import soot.jimple.Stmt;
 import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.jimple.toolkits.callgraph.Edge;
-import soot.jimple.toolkits.callgraph.ReachableMethods;
 import soot.tagkit.LineNumberTag;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.time.Instant;
 
 public class MainEntry {
@@ -39,6 +57,50 @@ public class MainEntry {
         boolean useSideEffect = true;
         boolean useControl = true;
         boolean enableMetrics = false;
+        // number of workers for the escape and side-effect components and the intra-procedural analysis,
+        // analyze components and entry methods one by one if it is less than 2
+        int workers = 1;
+        // file of the analysis snapshot, the whole-program phases are skipped if a valid snapshot exists,
+        // otherwise their results are saved to this file. Set to null to disable snapshot
+        String snapshotPath = null;
+        // reuse the results of methods not affected by the changed classes since the run that saved the snapshot
+        boolean incremental = false;
+        // stream of skippable units, ".jsonl" for JSON lines and ".bin" for binary. Set to null to only log results
+        String resultPath = null;
+        // JSON report of the cost of each phase and the per-method time of DEF/USE and overhead analyses.
+        // Set to null to disable recording
+        String perfReportPath = null;
+        // answer DEF/USE queries on demand from the kill groups of the CFG instead of bit vector flow sets,
+        // the results are the same
+        boolean sparseDU = false;
+        // budget of the cached CFGs and DEF/USE analyzers, in units of the cached methods. The least recently used
+        // ones are evicted and rebuilt if they are queried again. Set to 0 to keep all of them
+        long cacheBudgetUnits = 0;
+        // threads building DEF/USE analyzers in background, the reaching definitions and uses of a method are built
+        // in parallel, and the next duPrefetch entry methods are built while OverheadFinder runs on the current one.
+        // Set to 0 to build them on demand
+        int duWorkers = 0;
+        int duPrefetch = 4;
+        // budget of the points-to sets cached by the Spark query, in number of pointers. Set to 0 to keep all of them
+        long ptsToCacheEntries = 0;
+        // resolve the locations accessed by the access paths of DEF/USE field-sensitively over the points-to sets,
+        // at most this many locations per access path, over which its root is used instead.
+        // Set to 0 to only use the roots, i.e., field-insensitive
+        int fieldSensitiveLocations = 0;
+        // budget of Spark in seconds of wall-clock time and MB of live heap. Once exceeded, Spark is stopped, the
+        // program is reloaded and the type-based points-to analysis over a CHA call graph is used instead, the backend
+        // of the results of each method is recorded in the performance report. Spark can not be stopped on Java 20
+        // and later, there it only falls back if it runs out of memory. Set to 0 for no limit
+        long sparkBudgetSeconds = 0;
+        long sparkBudgetHeapMB = 0;
+        // before Spark, slice the program to the methods reachable from the entry points over an RTA call graph
+        // filtered as the refined one, Spark skips the bodies of the other methods. The objects that are only
+        // allocated by the skipped methods are missing from the points-to sets and the call graph
+        boolean sliceBeforeSpark = false;
+        // JDK of the analyzed project, the escape and side-effect results of its methods are loaded from the
+        // summaries shipped for the version (see LibrarySummaryGenerator) instead of analyzing their bodies.
+        // Set to null to analyze the JDK methods as well
+        String librarySummaryJdk = null;
 
         String projectName = "hadoop";
         RunConfig runConfig = new RunConfig(isLocal);
@@ -49,147 +111,277 @@ public class MainEntry {
         List<String> loggingMethods = runConfig.getLoggingMethods(projectName);
         loggingMethods.addAll(Constants.DEFAULT_DEBUG_LOGGING_METHOD);
 
-        Map<SootMethod, Metrics> method2metrics = new HashMap<>();
         Map<String, Metrics> loggingID2metrics = new HashMap<>();
 
+        if (perfReportPath != null) {
+            PerfRecorder.v().enable(true);
+        }
+
         SootExecutorUtil.setDefaultSootOptions(classpath);
         SootExecutorUtil.setSootEntryPoints(entryPoints);
 
         IPtsToQuery ptsto = null;
         SideEffectAnalysis sideEffectAnalysis = null;
 
-        CFGProvider cfgProvider = new HammockCFGProvider();
-
-        if (useSpark) {
-            LOGGER.info("[PERF] Start to build call graph at {}", Instant.now().toEpochMilli());
-            SimpleCallGraphFilter refiner = new SimpleCallGraphFilter();
-            SootExecutorUtil.doFastSparkPointsToAnalysis(new HashMap<>(), false, refiner);
-            ptsto = new SparkPtsToQuery();
-            LOGGER.info("[PERF] Finish to build call graph at {}", Instant.now().toEpochMilli());
+        HammockCFGProvider cfgProvider = cacheBudgetUnits > 0 ? new HammockCFGProvider(cacheBudgetUnits)
+                : new HammockCFGProvider();
+
+        LibrarySummaries librarySummaries = librarySummaryJdk == null ? null
+                : LibrarySummaries.loadResource(librarySummaryJdk);
+
+        // options affecting the results recorded in the snapshot
+        List<String> analysisOptions = Arrays.asList("useSpark=" + useSpark, "useSideEffect=" + useSideEffect,
+                "useControl=" + useControl, "loggingMethods=" + loggingMethods,
+                "librarySummaries=" + (librarySummaries == null ? null : librarySummaries.getJdkVersion()),
+                "fieldSensitiveLocations=" + fieldSensitiveLocations, "sliceBeforeSpark=" + sliceBeforeSpark);
+        Map<String, String> classHashes = null;
+        AnalysisSnapshot previous = null;
+        if (snapshotPath != null) {
+            classHashes = AnalysisSnapshot.hashClasses(classpath);
+            previous = AnalysisSnapshot.read(new File(snapshotPath));
         }
+        // the snapshot does not record the points-to results needed by the field-sensitive DEF/USE
+        boolean warmRestart = previous != null && previous.isUpToDate(classHashes, entryPoints, analysisOptions)
+                && fieldSensitiveLocations == 0;
+
+        CallGraph cg;
+        FastEscapeAnalysis escapeAnalysis;
+        // methods whose results can not be reused from the previous run, null if all methods are analyzed
+        Set<SootMethod> affectedMethods = null;
+        AnalysisSnapshot snapshot = null;
+        // backend of the points-to results the analyses of the entry methods are based on
+        String ptsToBackend = warmRestart ? "SNAPSHOT" : "NONE";
+        if (warmRestart) {
+            // the points-to results are not used by the intra-procedural analysis
+            LOGGER.info("[PERF] Start to restore analysis snapshot at {}", Instant.now().toEpochMilli());
+            PerfRecorder.Phase phase = PerfRecorder.v().startPhase("RestoreSnapshot");
+            cg = previous.restoreCallGraph();
+            Scene.v().setCallGraph(cg);
+            Scene.v().setReachableMethods(null);
+            escapeAnalysis = previous.restoreEscapeAnalysis();
+            sideEffectAnalysis = previous.restoreSideEffectAnalysis();
+            if (incremental) {
+                affectedMethods = Collections.emptySet();
+            }
+            phase.finish();
+            LOGGER.info("[PERF] Finish to restore analysis snapshot at {}", Instant.now().toEpochMilli());
+        } else {
+            if (previous != null) {
+                LOGGER.warn("[Snapshot] snapshot {} is stale", snapshotPath);
+            }
+            if (useSpark) {
+                LOGGER.info("[PERF] Start to build call graph at {}", Instant.now().toEpochMilli());
+                SimpleCallGraphFilter refiner = new SimpleCallGraphFilter();
+                CallGraphSlicer slicer = null;
+                if (sliceBeforeSpark) {
+                    PerfRecorder.Phase slicePhase = PerfRecorder.v().startPhase("CallGraphSlice");
+                    slicer = new CallGraphSlicer(refiner);
+                    slicer.exclude();
+                    slicePhase.finish();
+                }
+                boolean sparkFinished = SootExecutorUtil.doBudgetedSparkPointsToAnalysis(new HashMap<>(), false,
+                        refiner, sparkBudgetSeconds * 1000, sparkBudgetHeapMB << 20);
+                if (slicer != null) {
+                    slicer.restore();
+                }
+                if (sparkFinished) {
+                    ptsto = ptsToCacheEntries > 0 ? new SparkPtsToQuery(ptsToCacheEntries) : new SparkPtsToQuery();
+                    ptsToBackend = PointsToAnalysisType.SPARK.name();
+                } else {
+                    PerfRecorder.Phase fallbackPhase = PerfRecorder.v().startPhase("TypeBasedFallback");
+                    // Spark may have left bodies and classes half-built, reload the program from scratch
+                    SootUtils.resetSoot();
+                    Global.v().reset();
+                    SootExecutorUtil.setDefaultSootOptions(classpath);
+                    SootExecutorUtil.setSootEntryPoints(entryPoints);
+                    // builds a CHA call graph as there is none
+                    ptsto = new TypeBasedPtsToQuery(false);
+                    Scene.v().setCallGraph(refiner.refine(Scene.v().getCallGraph()));
+                    Scene.v().setReachableMethods(null);
+                    fallbackPhase.finish();
+                    ptsToBackend = PointsToAnalysisType.TYPE_BASED.name();
+                }
+                LOGGER.info("[PERF] Finish to build call graph at {}", Instant.now().toEpochMilli());
+            }
 
-        CallGraph cg = Scene.v().getCallGraph();
-
-        LOGGER.info("[PERF] Start AliasAnalysis at {}", Instant.now().toEpochMilli());
-        MustAliasIdentityLocalsQuery mustAliasQuery = new MustAliasIdentityLocalsQuery();
-        mustAliasQuery.build();
-        LOGGER.info("[PERF] Finish AliasAnalysis at {}", Instant.now().toEpochMilli());
+            cg = Scene.v().getCallGraph();
+
+            LOGGER.info("[PERF] Start AliasAnalysis at {}", Instant.now().toEpochMilli());
+            PerfRecorder.Phase phase = PerfRecorder.v().startPhase("Alias");
+            MustAliasIdentityLocalsQuery mustAliasQuery = new MustAliasIdentityLocalsQuery();
+            mustAliasQuery.build();
+            phase.finish();
+            LOGGER.info("[PERF] Finish AliasAnalysis at {}", Instant.now().toEpochMilli());
+
+            LOGGER.info("[PERF] Start EscapeAnalysis at {}", Instant.now().toEpochMilli());
+            phase = PerfRecorder.v().startPhase("Escape");
+            escapeAnalysis = new FastEscapeAnalysis(Scene.v().getCallGraph(), mustAliasQuery);
+            escapeAnalysis.setThreads(workers);
+            escapeAnalysis.setLibrarySummaries(librarySummaries);
+            escapeAnalysis.build();
+            phase.finish();
+            LOGGER.info("[PERF] Finish EscapeAnalysis at {}", Instant.now().toEpochMilli());
+
+            if (incremental && previous != null && previous.isCompatible(analysisOptions)) {
+                affectedMethods = previous.findAffectedMethods(cg, Scene.v().getEntryPoints(), classHashes);
+            }
 
-        LOGGER.info("[PERF] Start EscapeAnalysis at {}", Instant.now().toEpochMilli());
-        FastEscapeAnalysis escapeAnalysis = new FastEscapeAnalysis(Scene.v().getCallGraph(), mustAliasQuery);
-        escapeAnalysis.build();
-        LOGGER.info("[PERF] Finish EscapeAnalysis at {}", Instant.now().toEpochMilli());
+            if (useSideEffect) {
+                LOGGER.info("[PERF] Start SideEffectAnalysis at {}", Instant.now().toEpochMilli());
+                phase = PerfRecorder.v().startPhase("SideEffect");
+                sideEffectAnalysis = new SideEffectAnalysis(ptsto, mustAliasQuery, escapeAnalysis, Scene.v().getEntryPoints(),
+                        Constants.CUSTOMIZED_IO_METHOD);
+                sideEffectAnalysis.setThreads(workers);
+                sideEffectAnalysis.setLibrarySummaries(librarySummaries);
+                sideEffectAnalysis.build(affectedMethods, affectedMethods == null ? null : previous);
+                phase.finish();
+                LOGGER.info("[PERF] Finish SideEffectAnalysis at {}", Instant.now().toEpochMilli());
 
-        if (useSideEffect) {
-            LOGGER.info("[PERF] Start SideEffectAnalysis at {}", Instant.now().toEpochMilli());
-            sideEffectAnalysis = new SideEffectAnalysis(ptsto, mustAliasQuery, escapeAnalysis, Scene.v().getEntryPoints(),
-                    Constants.CUSTOMIZED_IO_METHOD);
-            sideEffectAnalysis.build();
-            LOGGER.info("[PERF] Finish SideEffectAnalysis at {}", Instant.now().toEpochMilli());
+            }
 
+            if (snapshotPath != null && ptsToBackend.equals(PointsToAnalysisType.TYPE_BASED.name())) {
+                LOGGER.warn("[Snapshot] snapshot is not saved, Spark exceeded its budget");
+            } else if (snapshotPath != null) {
+                snapshot = AnalysisSnapshot.create(classHashes, entryPoints, analysisOptions, cg, escapeAnalysis,
+                        sideEffectAnalysis);
+            }
         }
 
+        PtsToHelper.setFieldSensitive(fieldSensitiveLocations);
         DUBuilder du = new DUBuilder(cfgProvider, ptsto, sideEffectAnalysis);
+        du.setSparse(sparseDU);
+        if (cacheBudgetUnits > 0) {
+            du.setCacheBudget(cacheBudgetUnits);
+        }
+        ConcurrentDUQuery concurrentDUQuery = duWorkers > 0 ? new ConcurrentDUQuery(du, duWorkers) : null;
+        IGlobalDUQuery duQuery = concurrentDUQuery != null ? concurrentDUQuery : du.getGlobalDUQuery();
+        ResultSink resultSink = resultPath == null ? null : ResultFormat.openSink(new File(resultPath));
 
 
         LOGGER.info("[PERF] Start Intra-procedural analysis at {}", Instant.now().toEpochMilli());
-        for (SootMethod method : Scene.v().getEntryPoints()) {
-            // TODO for debug, uncomment this line
-//            if (!method.getSignature().equals("<org.apache.zookeeper.util.SecurityUtils$1: javax.security.sasl.SaslClient run()>")) {
-//                continue;
-//            }
-            IReachingDUQuery rdAnalysis = du.getGlobalDUQuery().getRDQuery(method);
-            IReachingDUQuery ruAnalysis = du.getGlobalDUQuery().getRUQuery(method);
-
-            OverheadFinder finder = new OverheadFinder(method, cfgProvider.getCFG(method),
-                    rdAnalysis, ruAnalysis, escapeAnalysis, sideEffectAnalysis, loggingMethods,
-                    Constants.CUSTOMIZED_IO_METHOD, useControl);
-
-            finder.doAnalysis();
-            if (finder.skippableUnits.size() > 0) {
-                List<Unit> overheads = new ArrayList<>(finder.skippableUnits.keySet());
-                overheads.remove(CFGEntry.v());
-                overheads.remove(CFGExit.v());
-                List<Unit> originalOrder = new ArrayList<>(method.getActiveBody().getUnits());
-                overheads.sort(Ordering.explicit(originalOrder));
-                // calc number of lines
-                LineNumberTag lineNumberTag;
-                List<Integer> lineNumbers = new ArrayList<>();
-                for (int i = 0; i < overheads.size(); i++) {
-                    lineNumberTag = (LineNumberTag)overheads.get(i).getTag("LineNumberTag");
-                    lineNumbers.add(lineNumberTag==null?-1:lineNumberTag.getLineNumber());
+        List<SootMethod> entryMethods = new ArrayList<>(Scene.v().getEntryPoints());
+        // TODO for debug, uncomment this line
+//        entryMethods.removeIf(m -> !m.getSignature().equals("<org.apache.zookeeper.util.SecurityUtils$1: javax.security.sasl.SaslClient run()>"));
+        // results of entry methods not affected by changes are reused, null if the method need to be analyzed
+        List<Map<Unit, Set<String>>> reusedResults = new ArrayList<>(entryMethods.size());
+        for (SootMethod method : entryMethods) {
+            boolean reusable = affectedMethods != null && !affectedMethods.contains(method);
+            reusedResults.add(reusable ? previous.restoreOverhead(method) : null);
+        }
+        LOGGER.info("[Incremental] {} of {} entry methods reuse previous results",
+                reusedResults.stream().filter(Objects::nonNull).count(), entryMethods.size());
+        previous = null;
+
+        ForkJoinPool pool = workers > 1 ? new ForkJoinPool(workers) : null;
+
+        // DEF/USE queries are built lazily, build them before running OverheadFinder to measure their cost separately.
+        // Skipped if the cache is bounded, otherwise the early ones would be evicted before they are used,
+        // or if they are prefetched in background
+        boolean prebuildDU = cacheBudgetUnits == 0 && concurrentDUQuery == null;
+        if (prebuildDU) {
+            PerfRecorder.Phase duPhase = PerfRecorder.v().startPhase("DUBuild");
+            List<ForkJoinTask<?>> duTasks = new ArrayList<>();
+            for (int i = 0; i < entryMethods.size(); i++) {
+                if (reusedResults.get(i) == null) {
+                    SootMethod method = entryMethods.get(i);
+                    if (pool != null) {
+                        duTasks.add(pool.submit(() -> buildDU(method, duQuery)));
+                    } else {
+                        buildDU(method, duQuery);
+                    }
                 }
+            }
+            for (ForkJoinTask<?> task : duTasks) {
+                task.join();
+            }
+            duPhase.finish();
+        }
 
-                LOGGER.info("Find overhead at method {}:{} has {} units and {} lines",
-                        method.getSignature(),
-                        method.getJavaSourceStartLineNumber(),
-                        finder.skippableUnits.size(),
-                        new HashSet<>(lineNumbers).size());
-
-                for (int i = 0; i < overheads.size(); i++) {
-                    String unitContent = overheads.get(i).toString();
-                    String linNum = lineNumbers.get(i)==-1?"UNKNOWN":lineNumbers.get(i).toString();
-                    Set<String> loggingIDs = finder.skippableUnits.get(overheads.get(i));
-
-                    LOGGER.info("\t -> {} AT LINE {} with ID {}", unitContent, linNum, loggingIDs);
-
-                    if (enableMetrics && METRICS_LOGGER.isInfoEnabled()) {
-                        Unit unit = overheads.get(i);
-                        for (String id : loggingIDs) {
-                            if (loggingID2metrics.containsKey(id)) {
-                                Metrics cur = loggingID2metrics.get(id);
-                                cur.setPotentialInstruction(cur.getPotentialInstruction()+1);
-                            } else {
-                                Metrics tmp = new Metrics(0, 1);
-                                loggingID2metrics.put(id, tmp);
-                            }
-                        }
-
-                        if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
-                            for (Iterator<Edge> it = cg.edgesOutOf(unit); it.hasNext(); ) {
-                                Edge edge = it.next();
-                                SootMethod callee = edge.tgt();
-                                int reachableMethodsCount = 0;
-                                int reachableInstCount = 0;
-
-                                if (method2metrics.containsKey(callee)) {
-                                    Metrics tmp = method2metrics.get(callee);
-                                    reachableMethodsCount = tmp.getPotentialMethodCall();
-                                    reachableInstCount = tmp.getPotentialInstruction();
-                                } else {
-                                    ReachableMethods reachableMethods
-                                            = new ReachableMethods(cg, Collections.<MethodOrMethodContext>singletonList(callee));
-                                    reachableMethods.update();
-                                    reachableMethodsCount = reachableMethods.size();
-                                    for (Iterator<MethodOrMethodContext> iterator = reachableMethods.listener(); iterator.hasNext();) {
-                                        SootMethod m = (SootMethod) iterator.next();
-                                        if (m.hasActiveBody()){
-                                            reachableInstCount += m.getActiveBody().getUnits().size();
-                                        }
-                                    }
-                                    method2metrics.put(callee, new Metrics(reachableMethodsCount, reachableInstCount));
-                                }
+        // cost of callees, bodies of the analyzed methods are retrieved now
+        ReachableCostSummary costSummary = null;
+        if (enableMetrics) {
+            PerfRecorder.Phase costPhase = PerfRecorder.v().startPhase("ReachableCost");
+            costSummary = new ReachableCostSummary(cg, Scene.v().getEntryPoints());
+            costSummary.build();
+            costPhase.finish();
+        }
 
-                                for (String id : loggingIDs) {
-                                    if (loggingID2metrics.containsKey(id)) {
-                                        Metrics cur = loggingID2metrics.get(id);
-                                        cur.setPotentialInstruction(cur.getPotentialInstruction()+reachableInstCount);
-                                        cur.setPotentialMethodCall(cur.getPotentialMethodCall()+reachableMethodsCount);
-                                    } else {
-                                        Metrics tmp = new Metrics(reachableMethodsCount, reachableInstCount);
-                                        loggingID2metrics.put(id, tmp);
-                                    }
-                                }
+        for (int i = 0; i < entryMethods.size(); i++) {
+            PerfRecorder.v().recordBackend(entryMethods.get(i).getSignature(),
+                    reusedResults.get(i) != null ? "SNAPSHOT" : ptsToBackend);
+        }
 
+        PerfRecorder.Phase finderPhase = PerfRecorder.v().startPhase("OverheadFinder");
+        final SideEffectAnalysis finalSideEffectAnalysis = sideEffectAnalysis;
+        if (pool != null) {
+            // entry methods are analyzed concurrently, but reported in the order of entry points
+            // so that the output is the same as the sequential mode
+            List<ForkJoinTask<Map<Unit, Set<String>>>> tasks = new ArrayList<>(entryMethods.size());
+            for (int i = 0; i < entryMethods.size(); i++) {
+                SootMethod method = entryMethods.get(i);
+                Map<Unit, Set<String>> reused = reusedResults.get(i);
+                tasks.add(reused != null ? null : pool.submit(() -> findOverhead(method, duQuery, cfgProvider, escapeAnalysis,
+                        finalSideEffectAnalysis, loggingMethods, useControl).skippableUnits));
+            }
+            for (int i = 0; i < entryMethods.size(); i++) {
+                Map<Unit, Set<String>> skippableUnits = tasks.get(i) == null ? reusedResults.get(i) : tasks.get(i).join();
+                tasks.set(i, null);
+                reusedResults.set(i, null);
+                reportOverhead(entryMethods.get(i), skippableUnits, cg, costSummary, loggingID2metrics,
+                        resultSink);
+                if (snapshot != null) {
+                    snapshot.addOverhead(entryMethods.get(i), skippableUnits);
+                }
+            }
+        } else {
+            for (int i = 0; i < entryMethods.size(); i++) {
+                SootMethod method = entryMethods.get(i);
+                Map<Unit, Set<String>> skippableUnits = reusedResults.get(i);
+                reusedResults.set(i, null);
+                if (skippableUnits == null) {
+                    if (concurrentDUQuery != null) {
+                        for (int j = i + 1; j < entryMethods.size() && j <= i + duPrefetch; j++) {
+                            if (reusedResults.get(j) == null) {
+                                concurrentDUQuery.prefetch(entryMethods.get(j));
                             }
                         }
                     }
+                    skippableUnits = findOverhead(method, duQuery, cfgProvider, escapeAnalysis,
+                            finalSideEffectAnalysis, loggingMethods, useControl).skippableUnits;
                 }
+                reportOverhead(method, skippableUnits, cg, costSummary, loggingID2metrics,
+                        resultSink);
+                if (snapshot != null) {
+                    snapshot.addOverhead(method, skippableUnits);
+                }
+            }
+        }
+        finderPhase.finish();
+        if (concurrentDUQuery != null) {
+            concurrentDUQuery.shutdown();
+        }
+        LOGGER.info("[Cache] {}", cfgProvider.getCache());
+        LOGGER.info("[Cache] {}", du.getRDCache());
+        LOGGER.info("[Cache] {}", du.getRUCache());
+        if (ptsto instanceof SparkPtsToQuery) {
+            LOGGER.info("[Cache] {}", ((SparkPtsToQuery) ptsto).getCacheSummary());
+        }
+        if (PtsToHelper.getResolver(ptsto) != null) {
+            LOGGER.info("[Cache] {}", PtsToHelper.getResolver(ptsto));
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
 
+        if (resultSink != null) {
+            resultSink.close();
+        }
 
-
-            } else {
-                LOGGER.warn("No overhead is found at method {}", method.getSignature());
+        if (snapshot != null) {
+            try {
+                snapshot.save(new File(snapshotPath));
+            } catch (IOException e) {
+                LOGGER.warn("[Snapshot] Fail to save analysis snapshot to {}", snapshotPath, e);
             }
         }
 
@@ -201,7 +393,133 @@ public class MainEntry {
 
         LOGGER.info("[PERF] Finish Intra-procedural analysis at {}", Instant.now().toEpochMilli());
 
+        if (perfReportPath != null) {
+            try {
+                PerfRecorder.v().writeReport(new File(perfReportPath));
+            } catch (IOException e) {
+                LOGGER.warn("[PERF] Fail to write performance report to {}", perfReportPath, e);
+            }
+        }
 
     }
-}
 
+    /** Build the reaching definition and reaching use queries of a method. */
+    static void buildDU(SootMethod method, IGlobalDUQuery duQuery) {
+        duQuery.getRDQuery(method);
+        duQuery.getRUQuery(method);
+    }
+
+    /**
+     * Build DEF/USE queries and run {@link OverheadFinder} on an entry method.
+     * Only reads the shared call graph, side-effect, escape and DEF/USE results, so it can be invoked concurrently
+     * for different methods.
+     */
+    static OverheadFinder findOverhead(SootMethod method, IGlobalDUQuery duQuery, CFGProvider cfgProvider,
+                                       ILocalityQuery localityQuery, SideEffectAnalysis sideEffectAnalysis,
+                                       List<String> loggingMethods, boolean useControl) {
+        IReachingDUQuery rdAnalysis = duQuery.getRDQuery(method);
+        IReachingDUQuery ruAnalysis = duQuery.getRUQuery(method);
+
+        OverheadFinder finder = new OverheadFinder(method, cfgProvider.getCFG(method),
+                rdAnalysis, ruAnalysis, localityQuery, sideEffectAnalysis, loggingMethods,
+                Constants.CUSTOMIZED_IO_METHOD, useControl);
+
+        long start = System.nanoTime();
+        finder.doAnalysis();
+        PerfRecorder.v().recordMethod("OverheadFinder", method.getSignature(), System.nanoTime() - start);
+        return finder;
+    }
+
+    /**
+     * Report skippable units found by {@link OverheadFinder} and collect metrics of the related logging calls.
+     * Must be invoked in the order of entry points.
+     * @param costSummary cost of the callees, null if metrics are disabled
+     * @param resultSink receive one record per skippable unit, null if results are only logged
+     */
+    static void reportOverhead(SootMethod method, Map<Unit, Set<String>> skippableUnits, CallGraph cg,
+                               ReachableCostSummary costSummary, Map<String, Metrics> loggingID2metrics,
+                               ResultSink resultSink) throws IOException {
+        if (skippableUnits.size() > 0) {
+            List<Unit> overheads = new ArrayList<>(skippableUnits.keySet());
+            overheads.remove(CFGEntry.v());
+            overheads.remove(CFGExit.v());
+            List<Unit> originalOrder = new ArrayList<>(method.getActiveBody().getUnits());
+            overheads.sort(Ordering.explicit(originalOrder));
+            Map<Unit, Integer> unit2index = new HashMap<>();
+            for (int i = 0; i < originalOrder.size(); i++) {
+                unit2index.put(originalOrder.get(i), i);
+            }
+            // calc number of lines
+            LineNumberTag lineNumberTag;
+            List<Integer> lineNumbers = new ArrayList<>();
+            for (int i = 0; i < overheads.size(); i++) {
+                lineNumberTag = (LineNumberTag)overheads.get(i).getTag("LineNumberTag");
+                lineNumbers.add(lineNumberTag==null?-1:lineNumberTag.getLineNumber());
+            }
+
+            LOGGER.info("Find overhead at method {}:{} has {} units and {} lines",
+                    method.getSignature(),
+                    method.getJavaSourceStartLineNumber(),
+                    skippableUnits.size(),
+                    new HashSet<>(lineNumbers).size());
+
+            for (int i = 0; i < overheads.size(); i++) {
+                String unitContent = overheads.get(i).toString();
+                String linNum = lineNumbers.get(i)==-1?"UNKNOWN":lineNumbers.get(i).toString();
+                Set<String> loggingIDs = skippableUnits.get(overheads.get(i));
+
+                LOGGER.info("\t -> {} AT LINE {} with ID {}", unitContent, linNum, loggingIDs);
+
+                // metrics of this unit, -1 if metrics are disabled
+                int unitMethodCall = -1;
+                int unitInstruction = -1;
+                if (costSummary != null) {
+                    unitMethodCall = 0;
+                    unitInstruction = 1;
+                    Unit unit = overheads.get(i);
+                    for (String id : loggingIDs) {
+                        if (loggingID2metrics.containsKey(id)) {
+                            Metrics cur = loggingID2metrics.get(id);
+                            cur.setPotentialInstruction(cur.getPotentialInstruction()+1);
+                        } else {
+                            Metrics tmp = new Metrics(0, 1);
+                            loggingID2metrics.put(id, tmp);
+                        }
+                    }
+
+                    if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
+                        for (Iterator<Edge> it = cg.edgesOutOf(unit); it.hasNext(); ) {
+                            Edge edge = it.next();
+                            SootMethod callee = edge.tgt();
+                            int reachableMethodsCount = costSummary.getReachableMethodCount(callee);
+                            int reachableInstCount = costSummary.getReachableInstructionCount(callee);
+                            unitMethodCall += reachableMethodsCount;
+                            unitInstruction += reachableInstCount;
+
+                            for (String id : loggingIDs) {
+                                if (loggingID2metrics.containsKey(id)) {
+                                    Metrics cur = loggingID2metrics.get(id);
+                                    cur.setPotentialInstruction(cur.getPotentialInstruction()+reachableInstCount);
+                                    cur.setPotentialMethodCall(cur.getPotentialMethodCall()+reachableMethodsCount);
+                                } else {
+                                    Metrics tmp = new Metrics(reachableMethodsCount, reachableInstCount);
+                                    loggingID2metrics.put(id, tmp);
+                                }
+                            }
+
+                        }
+                    }
+                }
+
+                if (resultSink != null) {
+                    resultSink.write(new OverheadRecord(method.getSignature(), unit2index.get(overheads.get(i)),
+                            lineNumbers.get(i), unitContent, new ArrayList<>(new TreeSet<>(loggingIDs)),
+                            unitMethodCall, unitInstruction));
+                }
+            }
+
+        } else {
+            LOGGER.warn("No overhead is found at method {}", method.getSignature());
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package plover.guards;
 
-import com.google.common.collect.Ordering;
-import plover.soot.graph.GraphHelper;
+import plover.soot.graph.GuardedRegions;
 import plover.soot.hammock.CFGEntry;
 import plover.soot.hammock.CFGExit;
 import plover.sootex.du.DefUseChain;
@@ -44,31 +43,54 @@ public class OverheadFinder {
     List<String> ioMethods;
     /* guarded statements for IfStmt*/
     Map<Unit, Set<Unit>> guardedStmts;
+    /* indexes of guarded statements, indexed by IfStmt, null if the unit is not an IfStmt */
+    private int[][] guardedIndexes;
     /* loops */
     Map<Unit, List<Stmt>> loops;
+    /* indexes of loop body, indexed by the condition of loop, null if the unit is not a loop condition */
+    private int[][] loopIndexes;
     /* back edge of loops */
     Set<Unit> backEdges;
-    /* post-dorminator tree*/
-    private DominatorTree<Unit> postDomTree;
+    /* regions guarded by IfStmt, computed for all IfStmts at once */
+    private GuardedRegions guardedRegions;
     /* reverse topological order*/
     private List<Unit> reverseTopoOrder;
     /* if use control dependencies*/
     private boolean useControl;
+    // units below are referred by their indexes in DefUseChain, i.e., positions in reverse topological order
     /**
-     * starting <code>Unit</code> which are used for each iteration of the whole analysis
+     * indexes of starting <code>Unit</code> which are used for each iteration of the whole analysis
      */
-    private Set<Unit> startingPoints = new HashSet<>();
+    private BitSet startingPoints = new BitSet();
     /**
-     * working <code>Unit</code> which are detected as skippable in last run
+     * indexes of working <code>Unit</code> which are detected as skippable in last run
      * and we need to detect if the DEF units for those untis are skippable
      */
-    private Deque<Unit> workingList = new LinkedList<>();
-    /* Call Stmt of Logging Methods*/
-    Set<Unit> loggingCalls = new HashSet<>();
-    /* skippable units according to logging statements*/
+    private Deque<Integer> workingList = new ArrayDeque<>();
+    /* indexes of Call Stmt of Logging Methods*/
+    BitSet loggingCalls = new BitSet();
+    /* indexes of skippable units according to logging statements*/
+    private BitSet skippable = new BitSet();
+    /* IDs of logging calls, indexed by the dense index of logging calls */
+    private List<String> loggingIDs = new ArrayList<>();
+    /* dense index of logging calls, indexed by unit, -1 if the unit is not a logging call */
+    private int[] loggingIndexes;
+    /* control statement marking the unit as skippable, indexed by unit, -1 if not marked by control statements */
+    private int[] controlledBy;
+    /* indexes of unskippable units according to logging statements*/
+    private BitSet unskippaleUnits = new BitSet();
+    /* units which can not reach a cycle in DU-graph */
+    private BitSet cycleFreeUnits;
+    /* cycle-free units detected as unknown in the current round of data-based analysis */
+    private BitSet unknownUnits = new BitSet();
+    /* units on the path of data-based analysis */
+    private BitSet underAnalysis = new BitSet();
+    /* explicit stack of data-based analysis: the units, positions of the next use to explore and their status */
+    private int[] analysisStack;
+    private int[] analysisPos;
+    private SkipStatus[] analysisStatus;
+    /* skippable units and their logging call IDs, available after doAnalysis */
     Map<Unit, Set<String>> skippableUnits = new HashMap<>();
-    /* unskippable units according to logging statements*/
-    Set<Unit> unskippaleUnits = new HashSet<>();
 
     enum SkipStatus {
         SKIPPABLE,
@@ -95,7 +117,6 @@ public class OverheadFinder {
 
     private void initialization() {
         this.guardedStmts = new HashMap<>();
-        this.postDomTree = new DominatorTree<>(new MHGPostDominatorsFinder<Unit>(cfg));
         this.reverseTopoOrder = (new PseudoTopologicalOrderer<Unit>()).newList(cfg, true);
 
         this.loops = new HashMap<>();
@@ -127,16 +148,26 @@ public class OverheadFinder {
 
             this.loops.put(condStmt, loopBlockBody);
         }
+        this.guardedRegions = new GuardedRegions(cfg, backEdges);
 
         this.defUseChain = new DefUseChain(rdAnalysis, ruAnalysis, reverseTopoOrder);
         defUseChain.initialization();
-
-        unskippaleUnits.add(CFGEntry.v());
-        unskippaleUnits.add(CFGExit.v());
+        this.loggingIndexes = new int[defUseChain.size()];
+        Arrays.fill(loggingIndexes, -1);
+        this.controlledBy = new int[defUseChain.size()];
+        Arrays.fill(controlledBy, -1);
+        this.cycleFreeUnits = defUseChain.getCycleFreeUnits();
+        // a unit appears on the path of data-based analysis at most once
+        this.analysisStack = new int[defUseChain.size()];
+        this.analysisPos = new int[defUseChain.size()];
+        this.analysisStatus = new SkipStatus[defUseChain.size()];
+
+        markUnskippable(CFGEntry.v());
+        markUnskippable(CFGExit.v());
 
         Set<Local> realLocals = localityQuery.getLocalityLocals(method);
-        for (Unit unit : this.reverseTopoOrder) {
-            String unitStr = unit.toString();
+        for (int index = 0; index < defUseChain.size(); index++) {
+            Unit unit = defUseChain.getUnit(index);
 
             Collection<AccessPath> defAccessPaths = defUseChain.getDefAccessPaths(unit);
 
@@ -148,7 +179,7 @@ public class OverheadFinder {
                         if (defValue instanceof Local && !realLocals.contains(defValue)) {
                             // workaround for <java.util.Set: int size()>()
                             if (!unit.toString().contains("<java.util.Set: int size()>()")) {
-                                unskippaleUnits.add(unit);
+                                unskippaleUnits.set(index);
                             }
                         }
                     }
@@ -156,9 +187,9 @@ public class OverheadFinder {
             }
 
             if (unit instanceof ReturnStmt) {
-                unskippaleUnits.add(unit);
+                unskippaleUnits.set(index);
             } else if (unit instanceof IdentityStmt) {
-                unskippaleUnits.add(unit);
+                unskippaleUnits.set(index);
             } else if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
                 SootMethod invokedMethod = ((Stmt) unit).getInvokeExpr().getMethod();
                 String methodName = invokedMethod.getName();
@@ -167,20 +198,22 @@ public class OverheadFinder {
                 for (String loggingMethod : loggingMethods) {
                     if (qualifiedMethodName.startsWith(loggingMethod)) {
                         // TODO assign uuid to logging calls
-                        skippableUnits.put(unit, new HashSet<>(Arrays.asList(generateIDForLogging(this.method, unit))));
-                        startingPoints.add(unit);
-                        loggingCalls.add(unit);
+                        loggingIndexes[index] = loggingIDs.size();
+                        loggingIDs.add(generateIDForLogging(this.method, unit));
+                        skippable.set(index);
+                        startingPoints.set(index);
+                        loggingCalls.set(index);
                         break;
                     }
                 }
                 // if this invokes io method, we can not skip this unit
                 if (ioMethods.contains(invokedMethod.getSignature())) {
-                    unskippaleUnits.add(unit);
+                    unskippaleUnits.set(index);
                 }
 
                 if (sideEffectAnalysis != null) {
                     if (sideEffectAnalysis.hasUnskippableSideEffect(invokedMethod)) {
-                        unskippaleUnits.add(unit);
+                        unskippaleUnits.set(index);
                     }
                 }
 
@@ -191,78 +224,94 @@ public class OverheadFinder {
 //                if (leftOp instanceof ArrayRef) {
 //                    Value base = ((ArrayRef) leftOp).getBase();
 //                    if (!locals.contains(base)) {
-//                        unskippaleUnits.add(unit);
+//                        unskippaleUnits.set(index);
 //                    }
 //                }  else if (leftOp instanceof Local) {
 //                    if (!locals.contains(leftOp)) {
-//                        unskippaleUnits.add(unit);
+//                        unskippaleUnits.set(index);
 //                    }
 //                }
                 if (leftOp instanceof InstanceFieldRef) {
-                    unskippaleUnits.add(unit);
+                    unskippaleUnits.set(index);
                 }
                 if (leftOp instanceof StaticFieldRef) {
-                    unskippaleUnits.add(unit);
+                    unskippaleUnits.set(index);
                 }
             } else if (unit instanceof IfStmt) {
                 // initialize guarded statements for IfStmt
-                // get blocks guarded by this logging guard
-                // 1. get all forward reachable nodes for both branch
-                List<Unit> succs = cfg.getSuccsOf(unit);
-                if (succs.size() != 2) throw new AssertionError();
-                List<Unit> succ0 = Collections.singletonList(succs.get(0));
-                List<Unit> succ1 = Collections.singletonList(succs.get(1));
-                Set<Unit> reachable0 = GraphHelper.getReachables(cfg, succ0, backEdges);
-                Set<Unit> reachable1 = GraphHelper.getReachables(cfg, succ1, backEdges);
-                // 2. find the first common forward reachable node (we need to find all back edge first)
-                List<Unit> commonReachable = new ArrayList<>(reachable0);
-                commonReachable.retainAll(reachable1);
-                commonReachable.remove(CFGExit.v());
-                commonReachable.sort(Ordering.explicit(new ArrayList<>(cfg.getBody().getUnits())));
-                commonReachable.add(CFGExit.v());
-                if (commonReachable.isEmpty()) throw new AssertionError();
-                if (commonReachable.size() != 1 || commonReachable.get(0) != CFGExit.v()) {
-                    // 3.1. if the node is not EXIT node, get all forward reachable nodes for both branch
-                    // until reaching this node and the keep the branch contains logging calls
-                    Unit firstCommon = commonReachable.get(0);
-                    List<Unit> endUnits = new ArrayList<>(backEdges);
-                    endUnits.add(firstCommon);
-                    Set<Unit> guardedUnits0 = GraphHelper.getReachables(cfg, succ0, endUnits);
-                    Set<Unit> guardedUnits1 = GraphHelper.getReachables(cfg, succ1, endUnits);
-                    Set<Unit> result = new HashSet<>();
-                    result.addAll(guardedUnits0);
-                    result.addAll(guardedUnits1);
-                    guardedStmts.put(unit, result);
-                } else {
-                    // 3.2. if the node is EXIT node, which means at least one of the branch stop early
+                // get blocks guarded by this logging guard: units reachable from both branches until they merge
+                // at the first common forward reachable node
+                if (!guardedRegions.hasMergePoint(unit)) {
+                    // if the merge point is the EXIT node, at least one of the branch stop early
                     // (ends with return / throw) and doesn't merge with another branch.
                     LineNumberTag lineNumberTag = (LineNumberTag)unit.getTag("LineNumberTag");
                     LOGGER.warn("Both branch of IfStmt {} at line {} don't merge! Need manual examination!",
                             unit.toString(), lineNumberTag==null?"Unknown":lineNumberTag.getLineNumber());
-                    Set<Unit> result = new HashSet<>();
-                    result.addAll(reachable0);
-                    result.addAll(reachable1);
-                    guardedStmts.put(unit, result);
                 }
+                guardedStmts.put(unit, guardedRegions.getGuardedUnits(unit));
+            }
+        }
+
+        this.guardedIndexes = new int[defUseChain.size()][];
+        for (Map.Entry<Unit, Set<Unit>> entry : guardedStmts.entrySet()) {
+            guardedIndexes[indexOfUnit(entry.getKey())] = indexesOf(entry.getValue());
+        }
+        this.loopIndexes = new int[defUseChain.size()][];
+        for (Map.Entry<Unit, List<Stmt>> entry : this.loops.entrySet()) {
+            if (entry.getKey() != null) {
+                loopIndexes[indexOfUnit(entry.getKey())] = indexesOf(entry.getValue());
             }
         }
     }
 
+    private int indexOfUnit(Unit unit) {
+        int index = defUseChain.indexOf(unit);
+        if (index < 0) {
+            throw new RuntimeException("Unit " + unit + " is not in the CFG of " + method.getSignature());
+        }
+        return index;
+    }
+
+    private int[] indexesOf(Collection<? extends Unit> units) {
+        int[] indexes = new int[units.size()];
+        int i = 0;
+        for (Unit unit : units) {
+            indexes[i++] = indexOfUnit(unit);
+        }
+        return indexes;
+    }
+
+    private void markUnskippable(Unit unit) {
+        int index = defUseChain.indexOf(unit);
+        if (index >= 0) {
+            unskippaleUnits.set(index);
+        }
+    }
+
+    /** Mark a unit as skippable because of the control statement. */
+    private void markControlled(int index, int controller) {
+        skippable.set(index);
+        controlledBy[index] = controller;
+        startingPoints.set(index);
+    }
+
     public void doAnalysis() {
         initialization();
 
         while (!startingPoints.isEmpty()) {
-            workingList.addAll(startingPoints);
+            for (int i = startingPoints.nextSetBit(0); i >= 0; i = startingPoints.nextSetBit(i + 1)) {
+                workingList.addLast(i);
+            }
             startingPoints.clear();
             // data dependence based identification
+            // status of units may change after control-based analysis
+            unknownUnits.clear();
             while (!workingList.isEmpty()) {
-                LOGGER.trace("Working list {}", workingList);
-                Unit unit = workingList.removeFirst();
-                List<Unit> defs = defUseChain.getDefUnitsOfUse(unit);
-                LOGGER.trace("[DEF] {} for unit {}", defs, unit);
-                defs.sort(Ordering.explicit(reverseTopoOrder));
-                for (Unit def : defs) {
-                    doDataBasedAnalysis(def, new ArrayList<>());
+                int unit = workingList.removeFirst();
+                LOGGER.trace("Working unit {}", defUseChain.getUnit(unit));
+                // definitions are in reverse topological order
+                for (int def : defUseChain.getDefIndexesOfUse(unit)) {
+                    doDataBasedAnalysis(def);
                 }
             }
 
@@ -280,113 +329,154 @@ public class OverheadFinder {
 //                unskippaleUnits.clear();
 //            }
         }
-        // TODO assign LoggingCallsID for Skippable Units
+
+        attributeLoggingIDs();
     }
 
     /**
-     *
-     * @param unit
-     * @param underAnalysis
+     * Decide whether a unit is skippable, i.e., all uses of its definitions are skippable.
+     * Uses are explored depth-first with an explicit stack, a unit which is already on the path of exploration
+     * is optimistically taken as skippable. Units which can not reach a cycle in the DU-graph get the same
+     * status whenever they are explored during one round of data-based analysis, so their UNKNOWN status
+     * is memoized as well.
+     * @param index index of the unit
      */
-    private SkipStatus doDataBasedAnalysis(Unit unit, List<Unit> underAnalysis) {
-        // self-dependent, usually happens to loop variables, assume unknown now
-        if (underAnalysis.contains(unit)) {
-//            if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
-//                if (((Stmt) unit).getInvokeExpr().getMethod().getName().equals("<init>")) {
-//                    return SkipStatus.SKIPPABLE;
-//                }
-//            }
+    private SkipStatus doDataBasedAnalysis(int index) {
+        SkipStatus status = getKnownStatus(index);
+        if (status != null) {
+            return status;
+        }
+        int top = pushAnalysis(index, 0);
+        // status of the last finished unit, which is a use of the unit on the top
+        SkipStatus useStatus = null;
+        while (top >= 0) {
+            int unit = analysisStack[top];
+            int[] uses = defUseChain.getUseIndexesOfDef(unit);
+            if (useStatus != null) {
+                if (useStatus == SkipStatus.UNSKIPPABLE) {
+                    analysisStatus[top] = SkipStatus.UNSKIPPABLE;
+                    // no need to check the rest uses
+                    analysisPos[top] = uses.length;
+                } else if (useStatus == SkipStatus.UNKNOWN) {
+                    analysisStatus[top] = SkipStatus.UNKNOWN;
+                }
+                useStatus = null;
+            }
+            // uses are in reverse topological order
+            if (analysisPos[top] < uses.length) {
+                int use = uses[analysisPos[top]++];
+                useStatus = getKnownStatus(use);
+                if (useStatus == null) {
+                    top = pushAnalysis(use, top + 1);
+                }
+                continue;
+            }
+
+            useStatus = finishAnalysis(unit, uses.length == 0 ? getStatusWithoutUse(unit) : analysisStatus[top]);
+            top--;
+        }
+        return useStatus;
+    }
+
+    /** Status of a unit which needs no exploration, null if the unit need to be explored. */
+    private SkipStatus getKnownStatus(int index) {
+        // self-dependent, usually happens to loop variables, assume skippable now
+        if (underAnalysis.get(index)) {
             return SkipStatus.SKIPPABLE;
         }
         // already detected as skippable
-        if (skippableUnits.containsKey(unit)) {
+        if (skippable.get(index)) {
             return SkipStatus.SKIPPABLE;
         }
         // already detected as unskippable
-        if (unskippaleUnits.contains(unit)) {
+        if (unskippaleUnits.get(index)) {
             return SkipStatus.UNSKIPPABLE;
         }
-        // no matches, do analysis
-        // if all uses of the def of this unit is skippable, then this unit is skippable
-        SkipStatus skip = SkipStatus.SKIPPABLE;
-        underAnalysis.add(unit);
-
-        List<Unit> uses = defUseChain.getUseUnitsOfDef(unit);
-        LOGGER.trace("[USE] {} for unit {}", uses, unit);
-        if (uses != null && uses.size() > 0) {
-            uses.sort(Ordering.explicit(reverseTopoOrder));
-            for (Unit use : uses) {
-                // TODO add a sanity check to skip cycle dependence
-                SkipStatus skipStatusOfUse = doDataBasedAnalysis(use, underAnalysis);
-                if (skipStatusOfUse == SkipStatus.UNSKIPPABLE) {
-                    skip = SkipStatus.UNSKIPPABLE;
-                    break;
-                } else if (skipStatusOfUse == SkipStatus.UNKNOWN) {
-                    skip = SkipStatus.UNKNOWN;
-                }
-            }
+        if (unknownUnits.get(index)) {
+            return SkipStatus.UNKNOWN;
         }
-        else {
-            // no def, assume UNKNOWN now
-            skip = SkipStatus.UNKNOWN;
-            // FIXME maybe too conservative
-            if (unit instanceof AssignStmt ) {
-                // FIXME workaround for array access, in current implementation, array access has no reaching uses,
-                //  However, doing so will introduce some false positive, we need to fix RUAnalysis to solve this problem
-                if (((AssignStmt) unit).getLeftOp() instanceof ArrayRef) {
-                    skip = SkipStatus.SKIPPABLE;
-                }
-            } else if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
-                // TODO workaround for cascading append,
-                //  the receiver object of the next append is the return value of previous append,
-                //  therefore the receiver object of the last append will not be used in other place explicitly
-                //  and it will break the DefUse chain. We need to use alias analysis to handle this properly.
-
-                if (((Stmt) unit).getInvokeExpr().getMethod().getSignature().contains("append")) {
-                    skip = SkipStatus.SKIPPABLE;
-                } else {
-                    skip = SkipStatus.UNSKIPPABLE;
-                }
+        return null;
+    }
 
+    private int pushAnalysis(int index, int top) {
+        analysisStack[top] = index;
+        analysisPos[top] = 0;
+        // if all uses of the def of this unit is skippable, then this unit is skippable
+        analysisStatus[top] = SkipStatus.SKIPPABLE;
+        underAnalysis.set(index);
+        return top;
+    }
+
+    /** Status of a unit whose definitions have no use. */
+    private SkipStatus getStatusWithoutUse(int index) {
+        Unit unit = defUseChain.getUnit(index);
+        // no def, assume UNKNOWN now
+        SkipStatus skip = SkipStatus.UNKNOWN;
+        // FIXME maybe too conservative
+        if (unit instanceof AssignStmt ) {
+            // FIXME workaround for array access, in current implementation, array access has no reaching uses,
+            //  However, doing so will introduce some false positive, we need to fix RUAnalysis to solve this problem
+            if (((AssignStmt) unit).getLeftOp() instanceof ArrayRef) {
+                skip = SkipStatus.SKIPPABLE;
+            }
+        } else if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
+            // TODO workaround for cascading append,
+            //  the receiver object of the next append is the return value of previous append,
+            //  therefore the receiver object of the last append will not be used in other place explicitly
+            //  and it will break the DefUse chain. We need to use alias analysis to handle this properly.
+
+            if (((Stmt) unit).getInvokeExpr().getMethod().getSignature().contains("append")) {
+                skip = SkipStatus.SKIPPABLE;
+            } else {
+                skip = SkipStatus.UNSKIPPABLE;
             }
+
         }
+        return skip;
+    }
 
-        underAnalysis.remove(unit);
+    private SkipStatus finishAnalysis(int index, SkipStatus skip) {
+        Unit unit = defUseChain.getUnit(index);
+        underAnalysis.clear(index);
         // if not SkipStatus.UNSKIPPABLE, the unit is skippable
         if (skip == SkipStatus.SKIPPABLE) {
             LOGGER.trace("Skippable unit {}", unit);
-            skippableUnits.put(unit, generateIDForNonLoging(unit));
-            workingList.addFirst(unit);
+            skippable.set(index);
+            workingList.addFirst(index);
         } else if (skip == SkipStatus.UNSKIPPABLE) {
             LOGGER.trace("Unskippable unit {}", unit);
-            unskippaleUnits.add(unit);
+            unskippaleUnits.set(index);
         } else {
             // SkipStatus.UNKNOWN
-            // do nothing
+            if (cycleFreeUnits.get(index)) {
+                unknownUnits.set(index);
+            }
         }
         return skip;
     }
 
 
     private void doControlBasedAnalysis() {
-        for (Unit unit : reverseTopoOrder) {
-            if (unit instanceof IfStmt && !skippableUnits.containsKey(unit) && !unskippaleUnits.contains(unit)) {
+        for (int index = 0; index < defUseChain.size(); index++) {
+            Unit unit = defUseChain.getUnit(index);
+            if (unit instanceof IfStmt && !skippable.get(index) && !unskippaleUnits.get(index)) {
                 // loop control
-                if (loops.containsKey(unit)) {
-                    List<Stmt> loopBlockBody = loops.get(unit);
+                if (loopIndexes[index] != null) {
+                    int[] loopBlockBody = loopIndexes[index];
                     List<Value> condValues = unit.getUseBoxes().stream()
                             .map(ValueBox::getValue)
                             .collect(Collectors.toList());
 
-                    List<Stmt> unmatchedStmts = new ArrayList<>();
-                    for (Stmt stmt : loopBlockBody) {
-                        if (!skippableUnits.containsKey(stmt)) {
+                    List<Integer> unmatchedStmts = new ArrayList<>();
+                    for (int stmt : loopBlockBody) {
+                        if (!skippable.get(stmt)) {
                             unmatchedStmts.add(stmt);
                         }
                     }
 
                     boolean allSkippable = true;
-                    for (Stmt unmatchedUnit : unmatchedStmts) {
+                    for (int unmatched : unmatchedStmts) {
+                        Stmt unmatchedUnit = (Stmt) defUseChain.getUnit(unmatched);
                         if (unmatchedUnit instanceof GotoStmt) {
                             // unconditional jump, do nothing
                         } else if (unmatchedUnit instanceof AssignStmt) {
@@ -426,33 +516,28 @@ public class OverheadFinder {
 
                     }
                     if (allSkippable) {
-                        Set<String> ids = new HashSet<>();
-                        for (Stmt stmt : loopBlockBody) {
-                            ids.addAll(generateIDForNonLoging(stmt));
-                        }
-                        skippableUnits.put(unit, ids);
-                        startingPoints.add(unit);
-                        for (Unit unmatchedUnit : unmatchedStmts) {
-                            skippableUnits.put(unmatchedUnit, ids);
-                            startingPoints.add(unmatchedUnit);
+                        markControlled(index, index);
+                        for (int unmatched : unmatchedStmts) {
+                            markControlled(unmatched, index);
                         }
                     }
                 }
                 // if control
                 else {
-                    Set<Unit> stmts = guardedStmts.get(unit);
-                    if (stmts == null || stmts.size() == 0) {
+                    int[] stmts = guardedIndexes[index];
+                    if (stmts == null || stmts.length == 0) {
                         LOGGER.warn("Guarded statements for {} is null or zero", unit);
                         continue;
                     }
-                    List<Unit> unmatchedStmts = new ArrayList<>();
-                    for (Unit stmt : stmts) {
-                        if (!skippableUnits.containsKey(stmt)) {
+                    List<Integer> unmatchedStmts = new ArrayList<>();
+                    for (int stmt : stmts) {
+                        if (!skippable.get(stmt)) {
                             unmatchedStmts.add(stmt);
                         }
                     }
                     boolean allSkippable = true;
-                    for (Unit stmt : unmatchedStmts) {
+                    for (int unmatched : unmatchedStmts) {
+                        Unit stmt = defUseChain.getUnit(unmatched);
                         // TODO maybe too aggressive
                         //  need to check whether the target unit of GotoStmt is exactly the unit after the if-else block
                         if (stmt instanceof GotoStmt) {
@@ -466,15 +551,9 @@ public class OverheadFinder {
                     }
                     if (allSkippable) {
                         // all statements are skippable, the if statement is also skippable
-                        Set<String> ids = new HashSet<>();
-                        for (Unit stmt : stmts) {
-                            ids.addAll(generateIDForNonLoging(stmt));
-                        }
-                        skippableUnits.put(unit, ids);
-                        startingPoints.add(unit);
-                        for (Unit unmatchedUnit : unmatchedStmts) {
-                            skippableUnits.put(unmatchedUnit, ids);
-                            startingPoints.add(unmatchedUnit);
+                        markControlled(index, index);
+                        for (int unmatched : unmatchedStmts) {
+                            markControlled(unmatched, index);
                         }
                     }
 
@@ -483,30 +562,129 @@ public class OverheadFinder {
         }
     }
 
-    private Set<String> generateIDForNonLoging(Unit unit) {
-        Set<String> ids = new HashSet<>();
-        Deque<Unit> workingList = new LinkedList<>();
-        workingList.addFirst(unit);
-        List<Unit> visited = new ArrayList<>();
-        while (!workingList.isEmpty()) {
-            Unit cur = workingList.removeFirst();
-            if (!cur.equals(unit)) {
-                if (skippableUnits.get(cur) == null) {
-                    ids.addAll(Arrays.asList("UNKNOWN_ID"));
-                } else {
-                    ids.addAll(skippableUnits.get(cur));
+    /**
+     * Attribute skippable units to the logging calls they feed, in a single propagation pass over the final marks.
+     * Logging calls are numbered densely, and the last bit stands for unknown uses, i.e., uses which are
+     * not skippable. Each unit u gets the logging calls of all units reachable from u in the DU-graph:
+     *   reach(u) = union of reach(v) and label(v) for each use v of u
+     *   label(v) = the logging call itself                     if v is a logging call
+     *            = unknown                                    if v is not skippable
+     *            = union of reach(s) for s guarded by c       if v is marked skippable by control statement c
+     *            = empty                                      otherwise, covered by reach(v)
+     * The IDs of a skippable unit are its label if it is a logging call or marked by control statements,
+     * otherwise its reach. Bit sets are resolved to logging call IDs only here, equal sets share the same IDs.
+     */
+    private void attributeLoggingIDs() {
+        int size = defUseChain.size();
+        int unknownBit = loggingIDs.size();
+        BitSet[] reach = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            reach[i] = new BitSet();
+        }
+
+        // control statements which mark units as skippable, and the statements guarded by them
+        BitSet[] guardedReach = new BitSet[size];
+        List<Integer>[] controllers = new List[size];
+        List<Integer>[] controlledUnits = new List[size];
+        for (int i = 0; i < size; i++) {
+            int controller = controlledBy[i];
+            if (controller < 0) {
+                continue;
+            }
+            if (controlledUnits[controller] == null) {
+                controlledUnits[controller] = new ArrayList<>();
+                guardedReach[controller] = new BitSet();
+                int[] guarded = loopIndexes[controller] != null ? loopIndexes[controller] : guardedIndexes[controller];
+                for (int stmt : guarded) {
+                    if (controllers[stmt] == null) {
+                        controllers[stmt] = new ArrayList<>();
+                    }
+                    controllers[stmt].add(controller);
                 }
+            }
+            controlledUnits[controller].add(i);
+        }
 
+        Deque<Integer> worklist = new ArrayDeque<>(size);
+        BitSet inWorklist = new BitSet(size);
+        // uses come before their definitions in reverse topological order
+        for (int i = 0; i < size; i++) {
+            worklist.addLast(i);
+        }
+        inWorklist.set(0, size);
+        BitSet out = new BitSet();
+        BitSet diff = new BitSet();
+        while (!worklist.isEmpty()) {
+            int unit = worklist.removeFirst();
+            inWorklist.clear(unit);
+
+            out.clear();
+            out.or(reach[unit]);
+            if (loggingIndexes[unit] >= 0) {
+                out.set(loggingIndexes[unit]);
+            } else if (!skippable.get(unit)) {
+                out.set(unknownBit);
+            } else if (controlledBy[unit] >= 0) {
+                out.or(guardedReach[controlledBy[unit]]);
+            }
+
+            for (int def : defUseChain.getDefIndexesOfUse(unit)) {
+                if (addAll(reach[def], out, diff) && !inWorklist.get(def)) {
+                    inWorklist.set(def);
+                    worklist.addLast(def);
+                }
+            }
+            if (controllers[unit] != null) {
+                for (int controller : controllers[unit]) {
+                    if (addAll(guardedReach[controller], reach[unit], diff)) {
+                        for (int controlled : controlledUnits[controller]) {
+                            if (!inWorklist.get(controlled)) {
+                                inWorklist.set(controlled);
+                                worklist.addLast(controlled);
+                            }
+                        }
+                    }
+                }
             }
-            if (!visited.contains(cur)) {
-                visited.add(cur);
-                List<Unit> useOfDef = defUseChain.getUseUnitsOfDef(cur);
-                if (useOfDef != null) {
-                    workingList.addAll(useOfDef);
+        }
+
+        Map<BitSet, Set<String>> resolved = new HashMap<>();
+        for (int i = skippable.nextSetBit(0); i >= 0; i = skippable.nextSetBit(i + 1)) {
+            BitSet bits;
+            if (loggingIndexes[i] >= 0) {
+                bits = new BitSet();
+                bits.set(loggingIndexes[i]);
+            } else if (controlledBy[i] >= 0) {
+                bits = guardedReach[controlledBy[i]];
+            } else {
+                bits = reach[i];
+            }
+            Set<String> ids = resolved.get(bits);
+            if (ids == null) {
+                ids = new HashSet<>();
+                for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                    ids.add(bit == unknownBit ? "UNKNOWN_ID" : loggingIDs.get(bit));
                 }
+                resolved.put((BitSet) bits.clone(), ids);
             }
+            skippableUnits.put(defUseChain.getUnit(i), ids);
+        }
+    }
+
+    /**
+     * Add all bits of from to to.
+     * @param diff temporal bit set
+     * @return whether to is changed
+     */
+    private static boolean addAll(BitSet to, BitSet from, BitSet diff) {
+        diff.clear();
+        diff.or(from);
+        diff.andNot(to);
+        if (diff.isEmpty()) {
+            return false;
         }
-        return ids;
+        to.or(diff);
+        return true;
     }
 
     static String generateIDForLogging(SootMethod method, Unit unit) {
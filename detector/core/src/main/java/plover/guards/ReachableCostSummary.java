@@ -0,0 +1,133 @@
+package plover.guards;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import plover.soot.SootUtils;
+import plover.soot.Utils;
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.toolkits.graph.DirectedGraph;
+import soot.toolkits.graph.PseudoTopologicalOrderer;
+
+import java.util.*;
+
+/**
+ * Number of methods and instructions reachable from each method in the call graph, i.e., the potential cost
+ * of invoking the method.
+ * Computed once bottom-up over the SCC graph: the reachable methods of a component is the union of its own
+ * methods and the reachable methods of its callee components. Reachable sets are kept as bit sets and released
+ * as soon as all caller components are done, only the counts are kept.
+ * Instructions are counted on methods with active bodies, so build it after the bodies are retrieved.
+ */
+public class ReachableCostSummary {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReachableCostSummary.class);
+
+    private CallGraph cg;
+    private Collection entries;
+    // indexed by method number, -1 if the method is not in the call graph
+    private int[] reachableMethods;
+    private int[] reachableInstructions;
+
+    public ReachableCostSummary(CallGraph cg, Collection entries) {
+        this.cg = cg;
+        this.entries = entries;
+    }
+
+    public void build() {
+        Date startTime = new Date();
+        int methodCount = SootUtils.getMethodCount();
+        reachableMethods = new int[methodCount];
+        reachableInstructions = new int[methodCount];
+        Arrays.fill(reachableMethods, -1);
+        Arrays.fill(reachableInstructions, -1);
+
+        DirectedGraph<List<SootMethod>> componentGraph = SootUtils.getSCCGraphFast(cg, entries);
+
+        // give each method a dense index for the bit sets, methods of a component take consecutive indexes
+        Map<List<SootMethod>, Integer> component2index = new IdentityHashMap<>();
+        Map<List<SootMethod>, Integer> component2firstMethod = new IdentityHashMap<>();
+        List<SootMethod> methods = new ArrayList<>();
+        for (List<SootMethod> component : componentGraph) {
+            component2index.put(component, component2index.size());
+            component2firstMethod.put(component, methods.size());
+            methods.addAll(component);
+        }
+        int[] instructions = new int[methods.size()];
+        for (int i = 0; i < methods.size(); i++) {
+            SootMethod m = methods.get(i);
+            instructions[i] = m.hasActiveBody() ? m.getActiveBody().getUnits().size() : 0;
+        }
+
+        // number of callers not processed yet, the reachable set of a component is released when it reaches 0
+        int[] pendingPreds = new int[component2index.size()];
+        for (List<SootMethod> component : componentGraph) {
+            int index = component2index.get(component);
+            for (List<SootMethod> pred : componentGraph.getPredsOf(component)) {
+                if (pred != component) {
+                    pendingPreds[index]++;
+                }
+            }
+        }
+
+        BitSet[] reachableSets = new BitSet[component2index.size()];
+        // callees first
+        List<List<SootMethod>> order = new PseudoTopologicalOrderer<List<SootMethod>>().newList(componentGraph, true);
+        for (List<SootMethod> component : order) {
+            int index = component2index.get(component);
+            int first = component2firstMethod.get(component);
+            BitSet reachable = new BitSet(methods.size());
+            reachable.set(first, first + component.size());
+            for (List<SootMethod> succ : componentGraph.getSuccsOf(component)) {
+                if (succ == component) {
+                    continue;
+                }
+                int succIndex = component2index.get(succ);
+                reachable.or(reachableSets[succIndex]);
+                if (--pendingPreds[succIndex] == 0) {
+                    reachableSets[succIndex] = null;
+                }
+            }
+
+            long instructionCount = 0;
+            for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+                instructionCount += instructions[i];
+            }
+            int reachableCount = reachable.cardinality();
+            for (SootMethod m : component) {
+                reachableMethods[m.getNumber()] = reachableCount;
+                reachableInstructions[m.getNumber()] = (int) Math.min(Integer.MAX_VALUE, instructionCount);
+            }
+
+            if (pendingPreds[index] > 0) {
+                reachableSets[index] = reachable;
+            }
+        }
+
+        Date endTime = new Date();
+        LOGGER.info("[ReachableCost] {} methods in {} components, finish in {}", methods.size(),
+                component2index.size(), Utils.getTimeConsumed(startTime, endTime));
+    }
+
+    /** Number of methods reachable from m, including m itself. */
+    public int getReachableMethodCount(SootMethod m) {
+        int id = m.getNumber();
+        if (id < reachableMethods.length && reachableMethods[id] >= 0) {
+            return reachableMethods[id];
+        }
+        // not in the call graph, only itself is reachable
+        return 1;
+    }
+
+    /** Number of units in the active bodies of the methods reachable from m, including m itself. */
+    public int getReachableInstructionCount(SootMethod m) {
+        int id = m.getNumber();
+        if (id < reachableInstructions.length && reachableInstructions[id] >= 0) {
+            return reachableInstructions[id];
+        }
+        return m.hasActiveBody() ? m.getActiveBody().getUnits().size() : 0;
+    }
+
+    public Metrics getMetrics(SootMethod m) {
+        return new Metrics(getReachableMethodCount(m), getReachableInstructionCount(m));
+    }
+}
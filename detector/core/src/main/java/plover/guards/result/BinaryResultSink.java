@@ -0,0 +1,53 @@
+package plover.guards.result;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding. Method signatures and logging IDs are written once and then referred by index,
+ * since all records of a method share the signature and a logging ID is shared by many units.
+ */
+public class BinaryResultSink implements ResultSink {
+    static final int MAGIC = 0x504c5652; // PLVR
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public BinaryResultSink(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+    }
+
+    @Override
+    public void write(OverheadRecord record) throws IOException {
+        writeString(record.getMethod());
+        out.writeInt(record.getUnitIndex());
+        out.writeInt(record.getLineNum());
+        out.writeUTF(record.getUnitContent());
+        out.writeInt(record.getLoggingIDs().size());
+        for (String id : record.getLoggingIDs()) {
+            writeString(id);
+        }
+        out.writeInt(record.getPotentialMethodCall());
+        out.writeInt(record.getPotentialInstruction());
+    }
+
+    private void writeString(String s) throws IOException {
+        Integer index = strings.get(s);
+        if (index == null) {
+            out.writeInt(-1);
+            out.writeUTF(s);
+            strings.put(s, strings.size());
+        } else {
+            out.writeInt(index);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
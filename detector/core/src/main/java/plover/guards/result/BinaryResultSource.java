@@ -0,0 +1,58 @@
+package plover.guards.result;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read the records written by {@link BinaryResultSink}.
+ */
+public class BinaryResultSource implements ResultSource {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    public BinaryResultSource(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readInt() != BinaryResultSink.MAGIC || this.in.readInt() != BinaryResultSink.VERSION) {
+            throw new IOException("Unknown format of binary results");
+        }
+    }
+
+    @Override
+    public OverheadRecord read() throws IOException {
+        int first;
+        try {
+            first = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        OverheadRecord record = new OverheadRecord();
+        record.setMethod(readString(first));
+        record.setUnitIndex(in.readInt());
+        record.setLineNum(in.readInt());
+        record.setUnitContent(in.readUTF());
+        int idCount = in.readInt();
+        List<String> ids = new ArrayList<>(idCount);
+        for (int i = 0; i < idCount; i++) {
+            ids.add(readString(in.readInt()));
+        }
+        record.setLoggingIDs(ids);
+        record.setPotentialMethodCall(in.readInt());
+        record.setPotentialInstruction(in.readInt());
+        return record;
+    }
+
+    private String readString(int index) throws IOException {
+        if (index < 0) {
+            String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+        return strings.get(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,28 @@
+package plover.guards.result;
+
+import com.alibaba.fastjson.JSON;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Write one JSON object per line.
+ */
+public class JsonLinesResultSink implements ResultSink {
+    private final Writer writer;
+
+    public JsonLinesResultSink(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(OverheadRecord record) throws IOException {
+        writer.write(JSON.toJSONString(record));
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,34 @@
+package plover.guards.result;
+
+import com.alibaba.fastjson.JSON;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read the records written by {@link JsonLinesResultSink}, empty lines are skipped.
+ */
+public class JsonLinesResultSource implements ResultSource {
+    private final BufferedReader reader;
+
+    public JsonLinesResultSource(InputStream in) {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public OverheadRecord read() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty());
+        return JSON.parseObject(line, OverheadRecord.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
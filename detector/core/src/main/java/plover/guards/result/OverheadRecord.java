@@ -0,0 +1,110 @@
+package plover.guards.result;
+
+import com.alibaba.fastjson.annotation.JSONField;
+
+import java.util.List;
+
+/**
+ * A skippable unit found in an entry method.
+ */
+public class OverheadRecord {
+    @JSONField(ordinal = 1)
+    private String method;
+    @JSONField(ordinal = 2)
+    private int unitIndex;
+    @JSONField(ordinal = 3)
+    private int lineNum;
+    @JSONField(ordinal = 4)
+    private String unitContent;
+    @JSONField(ordinal = 5)
+    private List<String> loggingIDs;
+    /** -1 if metrics are disabled */
+    @JSONField(ordinal = 6)
+    private int potentialMethodCall;
+    /** -1 if metrics are disabled */
+    @JSONField(ordinal = 7)
+    private int potentialInstruction;
+
+    public OverheadRecord() {
+    }
+
+    public OverheadRecord(String method, int unitIndex, int lineNum, String unitContent, List<String> loggingIDs,
+                          int potentialMethodCall, int potentialInstruction) {
+        this.method = method;
+        this.unitIndex = unitIndex;
+        this.lineNum = lineNum;
+        this.unitContent = unitContent;
+        this.loggingIDs = loggingIDs;
+        this.potentialMethodCall = potentialMethodCall;
+        this.potentialInstruction = potentialInstruction;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public int getUnitIndex() {
+        return unitIndex;
+    }
+
+    public void setUnitIndex(int unitIndex) {
+        this.unitIndex = unitIndex;
+    }
+
+    public int getLineNum() {
+        return lineNum;
+    }
+
+    public void setLineNum(int lineNum) {
+        this.lineNum = lineNum;
+    }
+
+    public String getUnitContent() {
+        return unitContent;
+    }
+
+    public void setUnitContent(String unitContent) {
+        this.unitContent = unitContent;
+    }
+
+    public List<String> getLoggingIDs() {
+        return loggingIDs;
+    }
+
+    public void setLoggingIDs(List<String> loggingIDs) {
+        this.loggingIDs = loggingIDs;
+    }
+
+    public int getPotentialMethodCall() {
+        return potentialMethodCall;
+    }
+
+    public void setPotentialMethodCall(int potentialMethodCall) {
+        this.potentialMethodCall = potentialMethodCall;
+    }
+
+    public int getPotentialInstruction() {
+        return potentialInstruction;
+    }
+
+    public void setPotentialInstruction(int potentialInstruction) {
+        this.potentialInstruction = potentialInstruction;
+    }
+
+    @Override
+    public String toString() {
+        return "OverheadRecord{" +
+                "method='" + method + '\'' +
+                ", unitIndex=" + unitIndex +
+                ", lineNum=" + lineNum +
+                ", unitContent='" + unitContent + '\'' +
+                ", loggingIDs=" + loggingIDs +
+                ", potentialMethodCall=" + potentialMethodCall +
+                ", potentialInstruction=" + potentialInstruction +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package plover.guards.result;
+
+import java.io.*;
+
+/**
+ * Encodings of the result stream, chosen by the file extension: ".jsonl" for JSON lines, ".bin" for binary.
+ */
+public enum ResultFormat {
+    JSON_LINES,
+    BINARY;
+
+    public static ResultFormat of(File file) {
+        String name = file.getName();
+        if (name.endsWith(".jsonl")) {
+            return JSON_LINES;
+        } else if (name.endsWith(".bin")) {
+            return BINARY;
+        }
+        throw new IllegalArgumentException("Unknown result format of " + file);
+    }
+
+    public static ResultSink openSink(File file) throws IOException {
+        ResultFormat format = of(file);
+        OutputStream out = new FileOutputStream(file);
+        return format == JSON_LINES ? new JsonLinesResultSink(out) : new BinaryResultSink(out);
+    }
+
+    public static ResultSource openSource(File file) throws IOException {
+        ResultFormat format = of(file);
+        InputStream in = new FileInputStream(file);
+        return format == JSON_LINES ? new JsonLinesResultSource(in) : new BinaryResultSource(in);
+    }
+}
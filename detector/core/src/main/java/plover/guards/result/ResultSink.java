@@ -0,0 +1,11 @@
+package plover.guards.result;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receive the skippable units as soon as each entry method is analyzed.
+ */
+public interface ResultSink extends Closeable {
+    void write(OverheadRecord record) throws IOException;
+}
@@ -0,0 +1,14 @@
+package plover.guards.result;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Read the records written by a {@link ResultSink} one by one.
+ */
+public interface ResultSource extends Closeable {
+    /**
+     * @return null if there are no more records
+     */
+    OverheadRecord read() throws IOException;
+}
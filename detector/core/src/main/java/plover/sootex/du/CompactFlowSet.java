@@ -0,0 +1,199 @@
+package plover.sootex.du;
+
+import java.util.*;
+
+import soot.toolkits.scalar.AbstractFlowSet;
+import soot.toolkits.scalar.ArraySparseSet;
+import soot.toolkits.scalar.FlowSet;
+
+/**
+ * A read only set of finalized reaching DEF/USE, stored as bits over the DEF/USE universe of a method.
+ * Only the words between the first and the last non-zero word are kept. Sets with the same content
+ * are shared between units through {@link Interner}.
+ */
+final class CompactFlowSet extends AbstractFlowSet<ReachingDU> {
+	private static final long[] NO_WORDS = new long[0];
+
+	private final ReachingDU[] _universe;
+	private final int _wordOffset;   // index of the first kept word
+	private final long[] _words;
+	private final int _size;
+	private final int _hash;
+
+	private CompactFlowSet(ReachingDU[] universe, BitSet bits){
+		this._universe = universe;
+
+		long[] all = bits.toLongArray();
+		int first = 0;
+		while(first < all.length && all[first] == 0){
+			first++;
+		}
+		this._wordOffset = first;
+		this._words = first == all.length ? NO_WORDS : Arrays.copyOfRange(all, first, all.length);
+		this._size = bits.cardinality();
+		this._hash = 31 * first + Arrays.hashCode(_words);
+	}
+
+	/** Whether the DEF/USE at the bit position is in the set. */
+	final boolean get(int bit){
+		int word = (bit >>> 6) - _wordOffset;
+		if(word < 0 || word >= _words.length){
+			return false;
+		}
+		return (_words[word] & (1L << bit)) != 0;
+	}
+
+	/** The first bit position set at or after <code>from</code>, -1 if none. */
+	final int nextSetBit(int from){
+		int word = Math.max((from >>> 6) - _wordOffset, 0);
+		if(word >= _words.length){
+			return -1;
+		}
+		long bits = _words[word];
+		if(word == (from >>> 6) - _wordOffset){
+			bits &= -1L << from;
+		}
+		while(true){
+			if(bits != 0){
+				return (word + _wordOffset) * 64 + Long.numberOfTrailingZeros(bits);
+			}
+			if(++word == _words.length){
+				return -1;
+			}
+			bits = _words[word];
+		}
+	}
+
+	/** A mutable copy. */
+	@Override
+	public AbstractFlowSet<ReachingDU> clone(){
+		ArraySparseSet<ReachingDU> copy = new ArraySparseSet<ReachingDU>();
+		for(int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)){
+			copy.add(_universe[i]);
+		}
+		return copy;
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return _size == 0;
+	}
+
+	@Override
+	public int size(){
+		return _size;
+	}
+
+	@Override
+	public void add(ReachingDU obj){
+		throw new UnsupportedOperationException("Finalized flow set is read only");
+	}
+
+	@Override
+	public void remove(ReachingDU obj){
+		throw new UnsupportedOperationException("Finalized flow set is read only");
+	}
+
+	@Override
+	public boolean contains(ReachingDU obj){
+		for(int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)){
+			if(_universe[i] == obj){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<ReachingDU> iterator(){
+		return new Iterator<ReachingDU>(){
+			int next = nextSetBit(0);
+
+			public boolean hasNext(){
+				return next >= 0;
+			}
+
+			public ReachingDU next(){
+				if(next < 0){
+					throw new NoSuchElementException();
+				}
+				ReachingDU rd = _universe[next];
+				next = nextSetBit(next + 1);
+				return rd;
+			}
+
+			public void remove(){
+				throw new UnsupportedOperationException("Finalized flow set is read only");
+			}
+		};
+	}
+
+	@Override
+	public List<ReachingDU> toList(){
+		List<ReachingDU> list = new ArrayList<ReachingDU>(_size);
+		for(int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)){
+			list.add(_universe[i]);
+		}
+		return list;
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o){
+			return true;
+		}
+		if(o instanceof CompactFlowSet){
+			CompactFlowSet other = (CompactFlowSet)o;
+			if(other._universe == _universe){
+				return other._hash == _hash && other._wordOffset == _wordOffset
+					&& Arrays.equals(other._words, _words);
+			}
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode(){
+		return _hash;
+	}
+
+	/**
+	 * Builds the finalized sets of a method, sets with the same content are returned as the same instance.
+	 */
+	static final class Interner {
+		private final ReachingDU[] _universe;
+		private final Map<ReachingDU, Integer> _du2bit;
+		private final Map<CompactFlowSet, CompactFlowSet> _pool = new HashMap<CompactFlowSet, CompactFlowSet>();
+
+		Interner(ReachingDU[] universe){
+			this._universe = universe;
+			this._du2bit = new IdentityHashMap<ReachingDU, Integer>(universe.length);
+			for(int i = 0; i < universe.length; i++){
+				_du2bit.put(universe[i], i);
+			}
+		}
+
+		CompactFlowSet intern(FlowSet<?> set){
+			BitSet bits = new BitSet(_universe.length);
+			for(Iterator<?> it = set.iterator(); it.hasNext(); ){
+				Integer bit = _du2bit.get(it.next());
+				if(bit == null){
+					throw new RuntimeException("DEF/USE is not in the universe of the flow set");
+				}
+				bits.set(bit);
+			}
+			CompactFlowSet candidate = new CompactFlowSet(_universe, bits);
+			CompactFlowSet shared = _pool.get(candidate);
+			if(shared == null){
+				_pool.put(candidate, candidate);
+				shared = candidate;
+			}
+			return shared;
+		}
+
+		/** Number of distinct sets */
+		int size(){
+			return _pool.size();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package plover.sootex.du;
+
+import soot.MethodOrMethodContext;
+import soot.SootMethod;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Thread-safe DEF/USE queries, the analyzers are built by a pool of background threads of the {@link DUBuilder}.
+ * Querying either analyzer of a method builds the reaching definition and reaching use analyzers in parallel,
+ * and {@link #prefetch(MethodOrMethodContext)} starts building the analyzers of a method that will be queried later.
+ * An analyzer being built is shared by all the queries and prefetches of its method, so no analyzer is built twice,
+ * unless it is evicted from the cache of the builder.
+ */
+public class ConcurrentDUQuery implements IGlobalDUQuery {
+    private final DUBuilder builder;
+    private final ExecutorService executor;
+    // analyzers being built, removed once they are cached by the builder
+    private final ConcurrentHashMap<SootMethod, CompletableFuture<RDAnalysis>> rdBuilding = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SootMethod, CompletableFuture<RUAnalysis>> ruBuilding = new ConcurrentHashMap<>();
+
+    public ConcurrentDUQuery(DUBuilder builder, int threads) {
+        this.builder = builder;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "DUBuilder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public IReachingDUQuery getRDQuery(MethodOrMethodContext mc) {
+        SootMethod m = mc.method();
+        if (builder.getRDCache().peek(m) != null) {
+            return builder.buildRD(m);
+        }
+        CompletableFuture<RDAnalysis> rd = submit(rdBuilding, m, builder::buildRD);
+        // the reaching uses are queried next
+        prefetchRU(m);
+        return join(rd);
+    }
+
+    @Override
+    public IReachingDUQuery getRUQuery(MethodOrMethodContext mc) {
+        SootMethod m = mc.method();
+        if (builder.getRUCache().peek(m) != null) {
+            return builder.buildRU(m);
+        }
+        CompletableFuture<RUAnalysis> ru = submit(ruBuilding, m, builder::buildRU);
+        prefetchRD(m);
+        return join(ru);
+    }
+
+    /** Start building the analyzers of the method in background, if they are not cached or being built. */
+    public void prefetch(MethodOrMethodContext mc) {
+        SootMethod m = mc.method();
+        prefetchRD(m);
+        prefetchRU(m);
+    }
+
+    private void prefetchRD(SootMethod m) {
+        if (builder.getRDCache().peek(m) == null) {
+            submit(rdBuilding, m, builder::buildRD);
+        }
+    }
+
+    private void prefetchRU(SootMethod m) {
+        if (builder.getRUCache().peek(m) == null) {
+            submit(ruBuilding, m, builder::buildRU);
+        }
+    }
+
+    @Override
+    public void releaseQuery(MethodOrMethodContext mc) {
+        SootMethod m = mc.method();
+        builder.getRDCache().remove(m);
+        builder.getRUCache().remove(m);
+    }
+
+    /** Stop the background threads, analyzers being built are finished. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <A> CompletableFuture<A> submit(ConcurrentHashMap<SootMethod, CompletableFuture<A>> building,
+                                            SootMethod m, Function<SootMethod, A> build) {
+        CompletableFuture<A> future = building.computeIfAbsent(m,
+                k -> CompletableFuture.supplyAsync(() -> build.apply(k), executor));
+        // registered out of computeIfAbsent, the future may be done already and the map can not be updated there
+        future.whenComplete((a, e) -> building.remove(m, future));
+        return future;
+    }
+
+    private static <A> A join(CompletableFuture<A> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -20,7 +20,9 @@ import soot.toolkits.graph.*;
 import soot.toolkits.scalar.*;
 
 /**
- *  A reaching DEF or USE analysis
+ *  A reaching DEF or USE analysis.
+ *  By default reaching DEF/USE are computed with bit vectors. In sparse mode, see {@link #setSparse(boolean)},
+ *  no flow sets are computed and queries are answered on demand by {@link SparseReachingDU}.
  */
 public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> implements IReachingDUQuery{
 
@@ -35,6 +37,15 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 	 */
 	protected Map<Unit,Object> _unit2Gen;
 	private Map<Unit, FlowSet> _unit2KillSet;
+	/** DEF/USE of each location and each access path in the universe, for building kill sets */
+	private Map<Location, List<ReachingDU>> _location2DU;
+	private Map<AccessPath, List<ReachingDU>> _accessPath2DU;
+	/** DEF/USE in the universe, the position is the bit of the DEF/USE in the finalized flow sets */
+	private ReachingDU[] _universe;
+	/** Bit positions of the DEF/USE on each location, kept after the analysis for the reaching site queries */
+	private Map<Location, BitSet> _location2Bits;
+	private boolean _sparse;
+	private SparseReachingDU _sparseDU;
 	
 	public DUAnalysis(MethodOrMethodContext mc, DirectedGraph<Unit> graph, ISideEffectAnalysis sideEffect){
 		super(graph);
@@ -52,41 +63,45 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 	/** Collect DU of each statement */
 	protected abstract Collection<ReachingDU> collectStmtDU(Unit stmt);
 	
-	private static class FinalizedFlowSet extends ArraySparseSet {
-		public FinalizedFlowSet(FlowSet set){
-			maxElements = numElements = set.size();
-		    elements = new Object[numElements];
-		      
-		    int i=0;    
-			for(Iterator<?> it = set.iterator();it.hasNext(); i++){
-				elements[i] = it.next();
-			}
-		}
-		
-		@SuppressWarnings("rawtypes")
-		@Override
-		public final List toList(){
-		    return Arrays.asList(elements);
-		}
-	}
-	
+	/**
+	 * Replace the before-flow and generated sets with read only compact sets. Units with the same set
+	 * share a single instance.
+	 */
 	protected void finalizeFlowSets(){
+		CompactFlowSet.Interner interner = new CompactFlowSet.Interner(_universe);
 		for(Map.Entry<Unit, FlowSet> e: this.unitToBeforeFlow.entrySet()){
-			FlowSet v = e.getValue();
-			FlowSet vf = new FinalizedFlowSet(v);
-			e.setValue(vf);
+			e.setValue(interner.intern(e.getValue()));
+		}
+		for(Map.Entry<Unit, Object> e: this._unit2Gen.entrySet()){
+			e.setValue(interner.intern((FlowSet)e.getValue()));
 		}
+		_location2Bits = new HashMap<Location, BitSet>();
+		for(int i = 0; i < _universe.length; i++){
+			for(Location loc: _universe[i].getLocations()){
+				BitSet bits = _location2Bits.get(loc);
+				if(bits == null){
+					bits = new BitSet(_universe.length);
+					_location2Bits.put(loc, bits);
+				}
+				bits.set(i);
+			}
+		}
+		LOGGER.debug("{} {} distinct flow sets for {} units of {}", getAnalysisName(), interner.size(),
+				unitToBeforeFlow.size(), _method);
 	}
 	
 	
 	public void build(){
 		Date startTime = new Date();
 		
-		FlowUniverse<ReachingDU> universe = collectUniverseFlowSet();
-		initKillSet(universe);
-		universe = null;
-		
-		doAnalysis();
+		collectUniverseFlowSet();
+		if(_sparse){
+			_sparseDU = new SparseReachingDU(graph, _universe, _unit2Gen, collectKilledAccessPaths());
+		}
+		else{
+			initKillSet();
+			doAnalysis();
+		}
 		finalizeFlowSets();
 		clean();
 		
@@ -95,6 +110,14 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 		LOGGER.debug("{} Analyze {} -- in {}", getAnalysisName(), _method, Utils.getTimeConsumed(startTime,endTime));
 	} 
 	
+	/**
+	 * Answer the reaching DEF/USE queries on demand instead of computing the flow sets, must be set before
+	 * {@link #build()}. The query results are the same, but {@link #getFlowBefore(Object)} is not available.
+	 */
+	public void setSparse(boolean sparse){
+		this._sparse = sparse;
+	}
+	
 	/** clean temporal data */
 	protected void clean(){		
 		unitToAfterFlow = null;
@@ -103,8 +126,15 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 		graph = null;
 		_sideEffect = null;		
 		_unit2KillSet = null; 
+		_location2DU = null;
+		_accessPath2DU = null;
 	}
 
+	/** Number of units in the analyzed CFG */
+	int getUnitCount(){
+		return _unit2Gen.size();
+	}
+	
 	/**
 	 * Get the DEF/USE of <code>Unit u</code>
 	 * @param u target unit
@@ -160,52 +190,88 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 		return null;
 	}
 	
-	private void initKillSet(FlowUniverse<ReachingDU> universe){
-		 _unit2KillSet=new HashMap<Unit, FlowSet>(graph.size()*2+1,0.7f);
+	/**
+	 * A statement kills the DEF/USE with the killed access path or on the root of the killed access path.
+	 * Kill sets are assembled from the location and access path indexes, and shared between statements
+	 * killing the same access path. Kill sets are read only.
+	 */
+	private void initKillSet(){
+		_unit2KillSet=new HashMap<Unit, FlowSet>(graph.size()*2+1,0.7f);
+		FlowSet emptyKillSet = _fullSet.clone();
+		Map<AccessPath, FlowSet> ap2KillSet = new IdentityHashMap<AccessPath, FlowSet>();
 		for(Iterator<Unit> it = graph.iterator(); it.hasNext();){
 			Unit stmt = it.next();
-			FlowSet killedSet = _fullSet.clone();
-			_unit2KillSet.put(stmt,killedSet);	
-			
 			AccessPath killedAp = getKilledAccessPath(stmt);			
 			if(killedAp == null){
+				_unit2KillSet.put(stmt, emptyKillSet);
 				continue;
 			}
-			
-			for (Iterator<?> duIt = universe.iterator(); duIt.hasNext();) {
-				ReachingDU rd = (ReachingDU) duIt.next();
-				if (rd.getAccessPath() != null) {
-					if (rd.getAccessPath() == killedAp)
+
+			FlowSet killedSet = ap2KillSet.get(killedAp);
+			if (killedSet == null) {
+				killedSet = _fullSet.clone();
+				List<ReachingDU> apDUs = _accessPath2DU.get(killedAp);
+				if (apDUs != null) {
+					for (ReachingDU rd : apDUs) {
 						killedSet.add(rd);
+					}
 				}
-				for (Location loc : rd.getLocations()) {
-					if (loc.equals(killedAp.getRoot())) {
+				List<ReachingDU> rootDUs = _location2DU.get(killedAp.getRoot());
+				if (rootDUs != null) {
+					for (ReachingDU rd : rootDUs) {
 						killedSet.add(rd);
-						break;
 					}
 				}
+				ap2KillSet.put(killedAp, killedSet);
+			}
+			_unit2KillSet.put(stmt, killedSet);
+		}
+	}
+	
+	/**
+	 * Get the access path killed by each statement, statements killing nothing are absent.
+	 */
+	private Map<Unit, AccessPath> collectKilledAccessPaths(){
+		Map<Unit, AccessPath> unit2Killed = new HashMap<Unit, AccessPath>();
+		for(Iterator<Unit> it = graph.iterator(); it.hasNext();){
+			Unit stmt = it.next();
+			AccessPath killedAp = getKilledAccessPath(stmt);
+			if(killedAp != null){
+				unit2Killed.put(stmt, killedAp);
 			}
 		}
+		return unit2Killed;
 	}
 	
 	/**
-	 * Get the universe reaching DEF/USE set.
+	 * Get the universe reaching DEF/USE set, and index the DEF/USE by their locations and access paths.
 	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	protected FlowUniverse<ReachingDU> collectUniverseFlowSet(){
         // collect the def/use of each statement
         _unit2Gen = new HashMap<Unit,Object>(graph.size()*2+1,0.7f);
         
+        _location2DU = new HashMap<Location, List<ReachingDU>>();
+        _accessPath2DU = new IdentityHashMap<AccessPath, List<ReachingDU>>();
         List<ReachingDU> allDU = new ArrayList<ReachingDU>();
         for(Iterator<?> it=graph.iterator();it.hasNext();){
         	Unit s = (Unit)it.next();
         	Collection<ReachingDU> duSet = collectStmtDU(s);
         	allDU.addAll(duSet);
         	_unit2Gen.put(s, duSet);
+        	for (ReachingDU rd : duSet) {
+        		if (rd.getAccessPath() != null) {
+        			addToIndex(_accessPath2DU, rd.getAccessPath(), rd);
+        		}
+        		for (Location loc : rd.getLocations()) {
+        			addToIndex(_location2DU, loc, rd);
+        		}
+        	}
         }
         
         // build the empty set
-        FlowUniverse<ReachingDU> universe = new ArrayFlowUniverse(allDU.toArray());
+        _universe = allDU.toArray(new ReachingDU[allDU.size()]);
+        FlowUniverse<ReachingDU> universe = new ArrayFlowUniverse<ReachingDU>(_universe);
         // TODO XXX: new ArrayPackedSet(FlowUniverse) consume large memory, use clone() instead
        	_fullSet = new ArrayPackedSet(universe);
 		
@@ -223,6 +289,15 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 	    return universe;
 	}
 	
+	private static <K> void addToIndex(Map<K, List<ReachingDU>> index, K key, ReachingDU rd) {
+		List<ReachingDU> dus = index.get(key);
+		if (dus == null) {
+			dus = new ArrayList<ReachingDU>(2);
+			index.put(key, dus);
+		}
+		dus.add(rd);
+	}
+
 	 ////////////////////// ForwardFlowAnalysis ///////////////////////////
 	protected FlowSet newInitialFlow() {
 		return _fullSet.clone();
@@ -253,8 +328,24 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
 	/////////////////////// IReachingDUQuery /////////////////////////////   
     public Collection<Unit> getReachingDUSites(Unit stmt, AccessPath ap, Location loc){
     	Set<Unit> froms = new HashSet<Unit>();
+    	if(_sparseDU != null){
+    		BitSet bits = _location2Bits.get(loc);
+    		if(bits != null){
+    			_sparseDU.findSites(bits, stmt, froms);
+    		}
+    		return froms;
+    	}
+    	
         FlowSet before = getFlowBefore(stmt);
         
+        if(before instanceof CompactFlowSet && _location2Bits != null){
+        	BitSet bits = _location2Bits.get(loc);
+        	if(bits != null){
+        		findDUInFlowSet(bits, (CompactFlowSet)before, froms);
+        	}
+        	return froms;
+        }
+        
         for(Iterator<?> it=before.iterator(); it.hasNext(); ){
             ReachingDU rd = (ReachingDU)it.next();
             Collection<Location> duLocs = rd.getLocations();
@@ -268,11 +359,74 @@ public abstract class DUAnalysis extends ForwardFlowAnalysis<Unit, FlowSet> impl
     
     public Collection<Unit> getReachingDUSites(Unit stmt, AccessPath ap, Collection<Location> locs){
         Set<Unit> froms = new HashSet<Unit>();
+        if(_sparseDU != null){
+        	BitSet find = getLocationBits(locs);
+        	if(find != null){
+        		_sparseDU.findSites(find, stmt, froms);
+        	}
+        	return froms;
+        }
+        
         FlowSet before = getFlowBefore(stmt);
+        
+        if(before instanceof CompactFlowSet && _location2Bits != null){
+        	BitSet find = getLocationBits(locs);
+        	if(find != null){
+        		findDUInFlowSet(find, (CompactFlowSet)before, froms);
+        	}
+        	return froms;
+        }
+        
         findDUInFlowSet(locs,before.iterator(),froms);
         return froms;
     }
     
+    /**
+     * Bit positions of the DEF/USE on any of the locations, null if there is none.
+     */
+    private BitSet getLocationBits(Collection<Location> locs){
+    	BitSet find = null;
+    	boolean shared = true;
+    	for(Location loc: locs){
+    		BitSet bits = _location2Bits.get(loc);
+    		if(bits == null){
+    			continue;
+    		}
+    		if(find == null){
+    			find = bits;
+    		}
+    		else{
+    			// the indexed bit sets are shared, copy before merging
+    			if(shared){
+    				find = (BitSet)find.clone();
+    				shared = false;
+    			}
+    			find.or(bits);
+    		}
+    	}
+    	return find;
+    }
+    
+    /**
+     * Find the DEF/USE in the finalized set whose bit is set in <code>find</code>.
+     * The result is added to 'froms' set
+     */
+    private void findDUInFlowSet(BitSet find, CompactFlowSet before, Set<Unit> froms){
+    	if(before.size() < find.cardinality()){
+    		for(int i = before.nextSetBit(0); i >= 0; i = before.nextSetBit(i + 1)){
+    			if(find.get(i)){
+    				froms.add(_universe[i].getStmt());
+    			}
+    		}
+    		return;
+    	}
+    	for(int i = find.nextSetBit(0); i >= 0; i = find.nextSetBit(i + 1)){
+    		if(before.get(i)){
+    			froms.add(_universe[i].getStmt());
+    		}
+    	}
+    }
+    
     /**
 	 * Find the possible definitions to locations in collection <code>find</code>.
      * The result is added to 'froms' set
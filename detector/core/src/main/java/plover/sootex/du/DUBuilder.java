@@ -2,13 +2,14 @@ package plover.sootex.du;
 
 import java.util.*;
 
+import plover.soot.BoundedCache;
 import plover.soot.Cache;
 import plover.sootex.location.HeapAbstraction;
 import plover.sootex.ptsto.IPtsToQuery;
 import plover.sootex.sideeffect.ISideEffectAnalysis;
-import plover.soot.SootUtils;
 import plover.soot.Utils;
 import plover.soot.hammock.CFGProvider;
+import plover.utils.PerfRecorder;
 import soot.*;
 import soot.toolkits.graph.*;
 
@@ -25,9 +26,10 @@ import soot.toolkits.graph.*;
  *      b.  clear(SootMethod)   => clear all temporal used for build the specified method 
  */
 public class DUBuilder{
-    private RDAnalysis[] _rdAnalyses;  // Reaching definition analyzer for each method
-    private RUAnalysis[] _ruAnalyses;  // Reaching use analyzer for each method
+    private BoundedCache<SootMethod, RDAnalysis> _rdAnalyses;  // Reaching definition analyzer for each method
+    private BoundedCache<SootMethod, RUAnalysis> _ruAnalyses;  // Reaching use analyzer for each method
     private HeapAbstraction _heapAbstraction;
+    private boolean _sparse;       // build sparse analyzers, see DUAnalysis.setSparse()
     
     //-------------- Temporal ------------------//
     private IPtsToQuery _ptsto;
@@ -41,10 +43,40 @@ public class DUBuilder{
     	this._ptsto = ptsto;
 		this._sideEffect = sideEffect;
 		this._query = new GbDUQuery();
-		
-		int methodCount = SootUtils.getMethodCount();
-		this._rdAnalyses = new RDAnalysis[methodCount];
-		this._ruAnalyses = new RUAnalysis[methodCount];
+		setCacheBudget(BoundedCache.UNBOUNDED);
+    }
+    
+    /**
+     * Bound the cached analyzers by the total number of units of their methods, separately for the reaching
+     * definition and reaching use analyzers. The least recently used analyzers are evicted, and rebuilt if
+     * they are queried again. Analyzers built before are dropped.
+     */
+    public void setCacheBudget(long maxUnits){
+    	BoundedCache.Weigher<DUAnalysis> weigher = new BoundedCache.Weigher<DUAnalysis>() {
+    		public long weigh(DUAnalysis analysis) {
+    			return analysis.getUnitCount();
+    		}
+    	};
+    	this._rdAnalyses = new BoundedCache<SootMethod, RDAnalysis>("RD", maxUnits, weigher);
+    	this._ruAnalyses = new BoundedCache<SootMethod, RUAnalysis>("RU", maxUnits, weigher);
+    }
+    
+    /** Cache of the reaching definition analyzers, for the hit and miss counters. */
+    public BoundedCache<SootMethod, RDAnalysis> getRDCache(){
+    	return _rdAnalyses;
+    }
+    
+    /** Cache of the reaching use analyzers, for the hit and miss counters. */
+    public BoundedCache<SootMethod, RUAnalysis> getRUCache(){
+    	return _ruAnalyses;
+    }
+    
+    /**
+     * Whether the analyzers answer queries on demand instead of computing the bit vector flow sets.
+     * Only affects the analyzers built afterwards.
+     */
+    public void setSparse(boolean sparse){
+    	this._sparse = sparse;
     }
     
     /**
@@ -68,33 +100,41 @@ public class DUBuilder{
 	/**
 	 * Build reaching definition analyzer for method m
 	 * @param m target method to build reaching definition
+	 * @return the analyzer of m, cached if it is built before and not evicted
 	 */
-	public void buildRD(SootMethod m){
-    	int id = m.getNumber();
-		RDAnalysis rdAnalysis = _rdAnalyses[id];
+	public RDAnalysis buildRD(SootMethod m){
+		RDAnalysis rdAnalysis = _rdAnalyses.get(m);
 		if (rdAnalysis == null) {
 			UnitGraph cfg = _cfgProvider.getCFG(m);
+			long start = System.nanoTime();
 			rdAnalysis = new RDAnalysis(m, cfg, _ptsto, _sideEffect);
+			rdAnalysis.setSparse(_sparse);
 			rdAnalysis.build();
+			PerfRecorder.v().recordMethod("RDAnalysis", m.getSignature(), System.nanoTime() - start);
 
-			_rdAnalyses[m.getNumber()] = rdAnalysis;
+			rdAnalysis = _rdAnalyses.put(m, rdAnalysis);
 		}
+		return rdAnalysis;
     }
 
 	/**
 	 * Build reaching use analyzer for method m
 	 * @param m target method to build reaching use
+	 * @return the analyzer of m, cached if it is built before and not evicted
 	 */
-    public void buildRU(SootMethod m){
-    	int id = m.getNumber();
-		RUAnalysis ruAnalysis = _ruAnalyses[id];
+    public RUAnalysis buildRU(SootMethod m){
+		RUAnalysis ruAnalysis = _ruAnalyses.get(m);
 		if (ruAnalysis == null) {			 
 			UnitGraph cfg = _cfgProvider.getCFG(m);
+			long start = System.nanoTime();
 			ruAnalysis = new RUAnalysis(m, cfg, _ptsto, _sideEffect);
+			ruAnalysis.setSparse(_sparse);
 			ruAnalysis.build();
+			PerfRecorder.v().recordMethod("RUAnalysis", m.getSignature(), System.nanoTime() - start);
 
-			_ruAnalyses[m.getNumber()] = ruAnalysis;
+			ruAnalysis = _ruAnalyses.put(m, ruAnalysis);
 		}
+		return ruAnalysis;
     }
     
     public void clear(SootMethod m){
@@ -116,28 +156,17 @@ public class DUBuilder{
     /////////////////////////////////////////////////////////////////////////////////////////
     public class GbDUQuery implements IGlobalDUQuery{   	    						
     	public IReachingDUQuery getRDQuery(MethodOrMethodContext mc){
-    		 SootMethod m = mc.method();
-    		 buildRD(m);
-    		 
-    		 int id = m.getNumber();
-    		 RDAnalysis rdAnalysis = _rdAnalyses[id];
-    		 return rdAnalysis;
+    		 return buildRD(mc.method());
     	}
     	
 		public IReachingDUQuery getRUQuery(MethodOrMethodContext mc) {
-			SootMethod m = mc.method();
-   		 	buildRU(m);
-   		 
-   		 	int id = m.getNumber();
-   		 	RUAnalysis ruAnalysis = _ruAnalyses[id];
-   		 	return ruAnalysis;
+			return buildRU(mc.method());
 		}
     	
     	public void releaseQuery(MethodOrMethodContext mc){
     		 SootMethod m = mc.method();
-    		 int id = m.getNumber();
-    		 _rdAnalyses[id] = null;
-    		 _ruAnalyses[id] = null;
+    		 _rdAnalyses.remove(m);
+    		 _ruAnalyses.remove(m);
     	}
     }
 }
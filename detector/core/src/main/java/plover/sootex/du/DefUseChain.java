@@ -8,16 +8,26 @@ import soot.Unit;
 
 import java.util.*;
 
+/**
+ * UD-chain and DU-chain of a method.
+ * Units are numbered by their position in the given reverse topological order, and the chains are kept as
+ * arrays of unit indexes in ascending order, i.e., the order of units in the reverse topological order.
+ */
 public class DefUseChain {
 
 
     private IReachingDUQuery rdAnalysis;
     private IReachingDUQuery ruAnalysis;
     private List<Unit> reverseTopoOrder;
-    /* definition of use, key is use unit, value is its definition units */
-    private HashMap<Unit, List<Unit>> udChain;
-    /* use of definition, key is definition unit, value is its use units */
-    private HashMap<Unit, List<Unit>> duChain;
+    /* units indexed by their position in reverse topological order */
+    private Unit[] units;
+    private Map<Unit, Integer> unit2index;
+    /* definition of use, indexed by the use unit, value is indexes of its definition units */
+    private int[][] udChain;
+    /* use of definition, indexed by the definition unit, value is indexes of its use units */
+    private int[][] duChain;
+
+    private static final int[] EMPTY = new int[0];
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefUseChain.class);
 
@@ -25,12 +35,21 @@ public class DefUseChain {
         this.rdAnalysis = rdAnalysis;
         this.ruAnalysis = ruAnalysis;
         this.reverseTopoOrder = reverseTopoOrder;
-        udChain = new HashMap<>(reverseTopoOrder.size());
-        duChain = new HashMap<>(reverseTopoOrder.size());
+        int size = reverseTopoOrder.size();
+        units = reverseTopoOrder.toArray(new Unit[size]);
+        unit2index = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            unit2index.put(units[i], i);
+        }
+        udChain = new int[size][];
+        duChain = new int[size][];
     }
 
     public void initialization() {
-        for (Unit unit : this.reverseTopoOrder) {
+        int size = units.length;
+        int[] useCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            Unit unit = units[i];
             Collection<Location> usedLocations = ruAnalysis.getDULocations(unit);
             Collection<Unit> defs = rdAnalysis.getReachingDUSites(unit, null, usedLocations);
             LOGGER.trace("UsedLocations {} for unit {}", usedLocations, unit);
@@ -38,33 +57,162 @@ public class DefUseChain {
             // remove self-dependent
             // FIXME some self-dependent is reasonable, such as statements in loop
             defs.remove(unit);
-            udChain.put(unit, new ArrayList<>(defs));
+            int[] defIndexes = new int[defs.size()];
+            int n = 0;
             for (Unit def : defs) {
-                if (duChain.containsKey(def)) {
-                    duChain.get(def).add(unit);
-                } else {
-                    duChain.put(def, new ArrayList<>(Collections.singletonList(unit)));
+                int defIndex = indexOf(def);
+                if (defIndex < 0) {
+                    throw new RuntimeException("Definition " + def + " of " + unit + " is not in the CFG");
                 }
+                defIndexes[n++] = defIndex;
+                useCounts[defIndex]++;
+            }
+            Arrays.sort(defIndexes);
+            udChain[i] = defIndexes;
+        }
+
+        // uses are visited in ascending order, so the DU-chain is sorted as well
+        for (int i = 0; i < size; i++) {
+            duChain[i] = useCounts[i] == 0 ? EMPTY : new int[useCounts[i]];
+            useCounts[i] = 0;
+        }
+        for (int use = 0; use < size; use++) {
+            for (int def : udChain[use]) {
+                duChain[def][useCounts[def]++] = use;
             }
         }
     }
 
+    /** Number of units in the method. */
+    public int size() {
+        return units.length;
+    }
+
+    /** Index of the unit in reverse topological order, -1 if it is not in the CFG. */
+    public int indexOf(Unit unit) {
+        Integer index = unit2index.get(unit);
+        return index == null ? -1 : index;
+    }
+
+    public Unit getUnit(int index) {
+        return units[index];
+    }
+
+    /** Indexes of all definitions of a use, in ascending order. */
+    public int[] getDefIndexesOfUse(int index) {
+        return udChain[index];
+    }
+
+    /** Indexes of all uses of a definition, in ascending order. */
+    public int[] getUseIndexesOfDef(int index) {
+        return duChain[index];
+    }
+
     /**
      * get all definitions of a use
      * @param unit
-     * @return
+     * @return null if the unit is not in the CFG
      */
     public List<Unit> getDefUnitsOfUse(Unit unit) {
-        return udChain.get(unit);
+        int index = indexOf(unit);
+        return index < 0 ? null : toUnits(udChain[index]);
     }
 
     /**
      * get all uses of a definition
      * @param unit
-     * @return
+     * @return null if the unit has no use
      */
     public List<Unit> getUseUnitsOfDef(Unit unit) {
-        return duChain.get(unit);
+        int index = indexOf(unit);
+        return index < 0 || duChain[index].length == 0 ? null : toUnits(duChain[index]);
+    }
+
+    /**
+     * Units that can not reach a cycle in the DU-graph, i.e., units whose strongly connected component
+     * and all successor components are single units.
+     * Components are computed with an iterative version of Tarjan's algorithm.
+     */
+    public BitSet getCycleFreeUnits() {
+        int size = units.length;
+        BitSet cycleFree = new BitSet(size);
+        int[] order = new int[size];     // visiting order, 0 if not visited
+        int[] lowLink = new int[size];
+        int[] tarjanStack = new int[size];
+        int tarjanTop = 0;
+        BitSet onStack = new BitSet(size);
+        int[] dfsUnits = new int[size];
+        int[] dfsPos = new int[size];
+        int visited = 0;
+
+        for (int root = 0; root < size; root++) {
+            if (order[root] != 0) {
+                continue;
+            }
+            int dfsTop = 0;
+            dfsUnits[0] = root;
+            dfsPos[0] = 0;
+            order[root] = lowLink[root] = ++visited;
+            tarjanStack[tarjanTop++] = root;
+            onStack.set(root);
+            while (dfsTop >= 0) {
+                int unit = dfsUnits[dfsTop];
+                int[] uses = duChain[unit];
+                if (dfsPos[dfsTop] < uses.length) {
+                    int use = uses[dfsPos[dfsTop]++];
+                    if (order[use] == 0) {
+                        dfsTop++;
+                        dfsUnits[dfsTop] = use;
+                        dfsPos[dfsTop] = 0;
+                        order[use] = lowLink[use] = ++visited;
+                        tarjanStack[tarjanTop++] = use;
+                        onStack.set(use);
+                    } else if (onStack.get(use)) {
+                        lowLink[unit] = Math.min(lowLink[unit], order[use]);
+                    }
+                    continue;
+                }
+
+                if (lowLink[unit] == order[unit]) {
+                    // unit is the root of a component, successor components are all completed
+                    int first = tarjanTop - 1;
+                    while (tarjanStack[first] != unit) {
+                        first--;
+                    }
+                    boolean free = first == tarjanTop - 1;
+                    for (int i = first; i < tarjanTop && free; i++) {
+                        for (int use : duChain[tarjanStack[i]]) {
+                            if (use == unit || !cycleFree.get(use)) {
+                                free = false;
+                                break;
+                            }
+                        }
+                    }
+                    for (int i = first; i < tarjanTop; i++) {
+                        int member = tarjanStack[i];
+                        onStack.clear(member);
+                        if (free) {
+                            cycleFree.set(member);
+                        }
+                    }
+                    tarjanTop = first;
+                }
+                dfsTop--;
+                if (dfsTop >= 0) {
+                    int caller = dfsUnits[dfsTop];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[unit]);
+                }
+            }
+        }
+        return cycleFree;
+    }
+
+    private List<Unit> toUnits(int[] indexes) {
+        List<Unit> result = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            result.add(units[index]);
+        }
+        return result;
     }
 
     public Collection<AccessPath> getDefAccessPaths(Unit unit) {
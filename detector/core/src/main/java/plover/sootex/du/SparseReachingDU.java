@@ -0,0 +1,368 @@
+package plover.sootex.du;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import plover.sootex.location.AccessPath;
+import plover.sootex.location.Location;
+import plover.soot.SootUtils;
+import soot.Unit;
+import soot.toolkits.graph.DirectedGraph;
+import soot.toolkits.scalar.FlowSet;
+
+/**
+ * Demand-driven reaching DEF/USE without per-unit flow sets, the sparse alternative to the bit vector analysis of
+ * {@link DUAnalysis}.
+ * DEF/USE killed by the same statements form a kill group, e.g., the DEF/USE of a local are killed by the
+ * definitions of the local, and heap DEF/USE are usually never killed. The sites of a group reaching each basic
+ * block are computed the first time the group is queried, by one sweep over the blocks in reverse post-order
+ * (repeated for loops), and kept for the later queries. A query only looks at the units of its block before the
+ * statement. Only the blocks reached by the sites of a group have a set, and equal sets of a group are shared.
+ * Results are the same as the bit vector analysis with the same kill sets.
+ */
+final class SparseReachingDU {
+	private final ReachingDU[] _universe;
+	/** units are numbered block by block, the units of a basic block have consecutive indexes */
+	private final Map<Unit, Integer> _unit2index;
+	/** basic block of each unit, by unit index */
+	private final int[] _block;
+	/** index of the first unit of each block, the last element is the number of units */
+	private final int[] _blockStart;
+	/** predecessors and successors of each block */
+	private final int[][] _blockPreds;
+	private final int[][] _blockSuccs;
+	/** blocks in reverse post-order, and the position of each block in it */
+	private final int[] _rpo;
+	private final int[] _rpoIndex;
+	/** unit index generating each DEF/USE, by bit position in the universe */
+	private final int[] _site;
+	/** kill group of each DEF/USE, by bit position in the universe */
+	private final int[] _group;
+	/** position of the site of each DEF/USE in the sites of its group, by bit position in the universe */
+	private final int[] _siteInGroup;
+	/** unit indexes killing each group, in ascending order */
+	private final int[][] _groupKillers;
+	/** unit indexes generating the DEF/USE of each group, in ascending order */
+	private final int[][] _groupSites;
+	/**
+	 * sites of each group reaching the entry of each block, as positions in the sites of the group,
+	 * null if the group is not queried yet. A block not reached by the group has no set.
+	 */
+	private final AtomicReferenceArray<BitSet[]> _groupReach;
+
+	/**
+	 * @param unit2Gen     DEF/USE generated by each unit of the graph
+	 * @param unit2Killed  access path killed by each unit, units killing nothing are absent
+	 */
+	SparseReachingDU(DirectedGraph<Unit> graph, ReachingDU[] universe, Map<Unit, ?> unit2Gen,
+					 Map<Unit, AccessPath> unit2Killed){
+		this._universe = universe;
+
+		// number the units block by block, units in cycles without a block head are numbered at last
+		int size = graph.size();
+		Unit[] units = new Unit[size];
+		_unit2index = new HashMap<Unit, Integer>(size * 2 + 1, 0.7f);
+		List<Integer> blockStarts = new ArrayList<Integer>();
+		for(Unit u: graph){
+			if(isBlockHead(graph, u)){
+				addBlock(graph, u, units, blockStarts);
+			}
+		}
+		for(Unit u: graph){
+			if(!_unit2index.containsKey(u)){
+				addBlock(graph, u, units, blockStarts);
+			}
+		}
+		int blocks = blockStarts.size();
+		_blockStart = new int[blocks + 1];
+		_block = new int[size];
+		for(int b = 0; b < blocks; b++){
+			_blockStart[b] = blockStarts.get(b);
+		}
+		_blockStart[blocks] = size;
+		for(int b = 0; b < blocks; b++){
+			Arrays.fill(_block, _blockStart[b], _blockStart[b + 1], b);
+		}
+
+		// edges between blocks enter at the first unit and leave from the last unit
+		_blockPreds = new int[blocks][];
+		_blockSuccs = new int[blocks][];
+		for(int b = 0; b < blocks; b++){
+			_blockPreds[b] = toBlocks(graph.getPredsOf(units[_blockStart[b]]));
+			_blockSuccs[b] = toBlocks(graph.getSuccsOf(units[_blockStart[b + 1] - 1]));
+		}
+		_rpo = reversePostOrder();
+		_rpoIndex = new int[blocks];
+		for(int i = 0; i < blocks; i++){
+			_rpoIndex[_rpo[i]] = i;
+		}
+
+		Map<ReachingDU, Integer> du2bit = new IdentityHashMap<ReachingDU, Integer>(universe.length);
+		for(int i = 0; i < universe.length; i++){
+			du2bit.put(universe[i], i);
+		}
+		_site = new int[universe.length];
+		for(Map.Entry<Unit, ?> e: unit2Gen.entrySet()){
+			int unit = indexOf(e.getKey());
+			for(Iterator<?> it = ((FlowSet<?>)e.getValue()).iterator(); it.hasNext(); ){
+				_site[du2bit.get(it.next())] = unit;
+			}
+		}
+
+		// the killing units of each access path and of each root location
+		Map<AccessPath, BitSet> apKillers = new IdentityHashMap<AccessPath, BitSet>();
+		Map<Location, BitSet> rootKillers = new HashMap<Location, BitSet>();
+		for(Map.Entry<Unit, AccessPath> e: unit2Killed.entrySet()){
+			int unit = indexOf(e.getKey());
+			AccessPath ap = e.getValue();
+			addKiller(apKillers, ap, unit);
+			addKiller(rootKillers, ap.getRoot(), unit);
+		}
+
+		_group = new int[universe.length];
+		Map<BitSet, Integer> killers2group = new HashMap<BitSet, Integer>();
+		List<int[]> groupKillers = new ArrayList<int[]>();
+		List<BitSet> groupSites = new ArrayList<BitSet>();
+		for(int i = 0; i < universe.length; i++){
+			ReachingDU rd = universe[i];
+			BitSet killers = new BitSet();
+			BitSet apKiller = rd.getAccessPath() == null ? null : apKillers.get(rd.getAccessPath());
+			if(apKiller != null){
+				killers.or(apKiller);
+			}
+			for(Location loc: rd.getLocations()){
+				BitSet rootKiller = rootKillers.get(loc);
+				if(rootKiller != null){
+					killers.or(rootKiller);
+				}
+			}
+			Integer group = killers2group.get(killers);
+			if(group == null){
+				group = groupKillers.size();
+				killers2group.put(killers, group);
+				groupKillers.add(killers.stream().toArray());
+				groupSites.add(new BitSet());
+			}
+			_group[i] = group;
+			groupSites.get(group).set(_site[i]);
+		}
+		_groupKillers = groupKillers.toArray(new int[groupKillers.size()][]);
+		_groupSites = new int[groupSites.size()][];
+		for(int g = 0; g < _groupSites.length; g++){
+			_groupSites[g] = groupSites.get(g).stream().toArray();
+		}
+		_siteInGroup = new int[universe.length];
+		for(int i = 0; i < universe.length; i++){
+			_siteInGroup[i] = Arrays.binarySearch(_groupSites[_group[i]], _site[i]);
+		}
+		_groupReach = new AtomicReferenceArray<BitSet[]>(_groupKillers.length);
+	}
+
+	/** A unit starts a basic block unless it is the only successor of its only predecessor. */
+	private static boolean isBlockHead(DirectedGraph<Unit> graph, Unit u){
+		List<Unit> preds = graph.getPredsOf(u);
+		return preds.size() != 1 || preds.get(0) == u || graph.getSuccsOf(preds.get(0)).size() != 1;
+	}
+
+	private void addBlock(DirectedGraph<Unit> graph, Unit head, Unit[] units, List<Integer> blockStarts){
+		blockStarts.add(_unit2index.size());
+		Unit u = head;
+		while(true){
+			units[_unit2index.size()] = u;
+			_unit2index.put(u, _unit2index.size());
+			List<Unit> succs = graph.getSuccsOf(u);
+			if(succs.size() != 1 || isBlockHead(graph, succs.get(0)) || _unit2index.containsKey(succs.get(0))){
+				break;
+			}
+			u = succs.get(0);
+		}
+	}
+
+	private int[] toBlocks(List<Unit> units){
+		int[] blocks = new int[units.size()];
+		for(int i = 0; i < blocks.length; i++){
+			blocks[i] = _block[indexOf(units.get(i))];
+		}
+		return blocks;
+	}
+
+	/** Depth-first from the blocks without predecessors, then from the blocks left, e.g., in unreachable cycles */
+	private int[] reversePostOrder(){
+		int blocks = _blockPreds.length;
+		int[] order = new int[blocks];
+		int next = blocks;
+		BitSet visited = new BitSet(blocks);
+		int[] stack = new int[blocks];
+		int[] pos = new int[blocks];
+		for(int pass = 0; pass < 2; pass++){
+			for(int root = 0; root < blocks; root++){
+				if(visited.get(root) || (pass == 0 && _blockPreds[root].length > 0)){
+					continue;
+				}
+				int top = 0;
+				stack[0] = root;
+				pos[0] = 0;
+				visited.set(root);
+				while(top >= 0){
+					int b = stack[top];
+					if(pos[top] < _blockSuccs[b].length){
+						int succ = _blockSuccs[b][pos[top]++];
+						if(!visited.get(succ)){
+							visited.set(succ);
+							stack[++top] = succ;
+							pos[top] = 0;
+						}
+					}
+					else{
+						order[--next] = b;
+						top--;
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	private static <K> void addKiller(Map<K, BitSet> killers, K key, int unit){
+		BitSet units = killers.get(key);
+		if(units == null){
+			units = new BitSet();
+			killers.put(key, units);
+		}
+		units.set(unit);
+	}
+
+	private int indexOf(Unit u){
+		Integer index = _unit2index.get(u);
+		if(index == null){
+			throw new RuntimeException("Statement " + SootUtils.getStmtString(u) + " is not in the CFG");
+		}
+		return index;
+	}
+
+	/** Number of kill groups */
+	int getGroupCount(){
+		return _groupKillers.length;
+	}
+
+	/**
+	 * Find the DEF/USE in <code>candidates</code> reaching <code>stmt</code>, the result is added to 'froms' set.
+	 * A DEF/USE reaches the statement if it is generated before the statement in its block and not killed in
+	 * between, or if it reaches the block and no unit before the statement in the block kills it.
+	 * @param candidates bit positions of the DEF/USE in the universe
+	 */
+	void findSites(BitSet candidates, Unit stmt, Set<Unit> froms){
+		int start = indexOf(stmt);
+		int blockStart = _blockStart[_block[start]];
+		for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)){
+			int group = _group[i];
+			int site = _site[i];
+			int killer = lastKiller(_groupKillers[group], blockStart, start);
+			boolean reached;
+			if(site >= blockStart && site < start && site >= killer){
+				// the DEF/USE generated by a unit reaches its successors even if the unit kills the group
+				reached = true;
+			}
+			else if(killer < blockStart){
+				BitSet reach = getGroupReach(group)[_block[start]];
+				reached = reach != null && reach.get(_siteInGroup[i]);
+			}
+			else{
+				reached = false;
+			}
+			if(reached){
+				froms.add(_universe[i].getStmt());
+			}
+		}
+	}
+
+	/** The last unit in [from, to) killing the group, or -1 if there is none */
+	private static int lastKiller(int[] killers, int from, int to){
+		int pos = Arrays.binarySearch(killers, to);
+		// the insertion point if 'to' is not a killer, the killers before it are less than it
+		int before = (pos >= 0 ? pos : -pos - 1) - 1;
+		return before >= 0 && killers[before] >= from ? killers[before] : -1;
+	}
+
+	/** Sites of the group reaching each block, computed once */
+	private BitSet[] getGroupReach(int group){
+		BitSet[] reach = _groupReach.get(group);
+		return reach != null ? reach : computeGroupReach(group);
+	}
+
+	/**
+	 * The blocks are swept in reverse post-order from the blocks generating the group, a block is visited again
+	 * only if the sites reaching it grow.
+	 */
+	private synchronized BitSet[] computeGroupReach(int group){
+		BitSet[] reach = _groupReach.get(group);
+		if(reach != null){
+			return reach;
+		}
+		int[] sites = _groupSites[group];
+		int[] killers = _groupKillers[group];
+		int blocks = _rpo.length;
+		reach = new BitSet[blocks];
+		BitSet pending = new BitSet(blocks);
+		for(int site: sites){
+			pending.set(_rpoIndex[_block[site]]);
+		}
+		int next = 0;
+		while(!pending.isEmpty()){
+			next = pending.nextSetBit(next);
+			if(next < 0){
+				next = pending.nextSetBit(0);
+			}
+			pending.clear(next);
+			int b = _rpo[next];
+
+			// sites leaving the block: the ones after its last killer, or all sites reaching it if it kills none
+			int end = _blockStart[b + 1];
+			int killer = lastKiller(killers, _blockStart[b], end);
+			int from = Arrays.binarySearch(sites, Math.max(killer, _blockStart[b]));
+			from = from >= 0 ? from : -from - 1;
+			BitSet out;
+			if(killer < 0 && (from == sites.length || sites[from] >= end)){
+				// neither generates nor kills the group, only read below
+				out = reach[b];
+			}
+			else{
+				out = killer >= 0 || reach[b] == null ? new BitSet() : (BitSet) reach[b].clone();
+				for(int i = from; i < sites.length && sites[i] < end; i++){
+					out.set(i);
+				}
+			}
+			if(out == null || out.isEmpty()){
+				continue;
+			}
+
+			for(int succ: _blockSuccs[b]){
+				BitSet in = reach[succ];
+				if(in == null){
+					reach[succ] = (BitSet) out.clone();
+				}
+				else{
+					int before = in.cardinality();
+					in.or(out);
+					if(in.cardinality() == before){
+						continue;
+					}
+				}
+				pending.set(_rpoIndex[succ]);
+			}
+		}
+
+		// most blocks of a group share a few sets
+		Map<BitSet, BitSet> shared = new HashMap<BitSet, BitSet>();
+		for(int b = 0; b < blocks; b++){
+			if(reach[b] != null){
+				BitSet set = shared.putIfAbsent(reach[b], reach[b]);
+				if(set != null){
+					reach[b] = set;
+				}
+			}
+		}
+		_groupReach.set(group, reach);
+		return reach;
+	}
+}
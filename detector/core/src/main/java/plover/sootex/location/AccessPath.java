@@ -29,7 +29,7 @@ public class AccessPath implements Numberable {
         Global.v().regesiterResetableGlobals(AccessPath.class);
     }
     
-    public static void release(SootMethod m){
+    public static synchronized void release(SootMethod m){
     	if(!m.hasActiveBody())
     		return;
     	
@@ -119,7 +119,7 @@ public class AccessPath implements Numberable {
      * @param root
      * @return
      */
-    public static AccessPath getByRoot(Location root){
+    public static synchronized AccessPath getByRoot(Location root){
         AccessPath ap = _root2AccessPath.get(root);
         if(null == ap){
             ap = new AccessPath(root);
@@ -194,13 +194,15 @@ public class AccessPath implements Numberable {
         
         return ext; */
     	
-    	AccessPath ext = _extensions.get(accessor);
-    	if(ext == null){
-    		ext = new AccessPath(this,accessor);
-    		_extensions.put(accessor,ext);
+    	// the factory is shared by concurrent intra-procedural analyses
+    	synchronized (AccessPath.class) {
+    		AccessPath ext = _extensions.get(accessor);
+    		if(ext == null){
+    			ext = new AccessPath(this,accessor);
+    			_extensions.put(accessor,ext);
+    		}
+    		return ext;
     	}
-        
-        return ext; 
     } 
     
     public AccessPath appendFieldRef(SootField field){
@@ -376,6 +378,14 @@ public class AccessPath implements Numberable {
     	return _accessList[index];
     }
     
+    public AccessPath appendAccessors(Object[] accessors){
+    	AccessPath cur = this;
+    	for(Object access: accessors){
+    		cur = cur.appendAccessor(access);
+    	}
+    	return cur;
+    }
+
     public AccessPath appendAccessors(List<Object> accessors){
     	AccessPath cur = this;
     	for(Iterator<Object> it=accessors.iterator();it.hasNext();){
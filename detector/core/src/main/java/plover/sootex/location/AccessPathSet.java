@@ -0,0 +1,208 @@
+package plover.sootex.location;
+
+import plover.soot.Global;
+
+import java.util.*;
+
+/**
+ * An immutable set of access paths, stored as an array sorted by the access path numbers.
+ * Sets are hash-consed: {@link #of(Collection)} returns the same instance for the same content, so equal
+ * summaries, e.g., the empty side-effects of most getters, are stored once and can be compared by identity.
+ */
+public final class AccessPathSet extends AbstractSet<AccessPath> {
+	private static final AccessPath[] NO_PATHS = new AccessPath[0];
+	private static final Comparator<AccessPath> BY_NUMBER = new Comparator<AccessPath>() {
+		public int compare(AccessPath a, AccessPath b) {
+			return Integer.compare(a.getNumber(), b.getNumber());
+		}
+	};
+
+	public static final AccessPathSet EMPTY = new AccessPathSet(NO_PATHS);
+
+	private static Map<AccessPathSet, AccessPathSet> _pool;
+
+	// the access path numbers restart on reset
+	protected static synchronized void reset() {
+		_pool = new HashMap<AccessPathSet, AccessPathSet>();
+		_pool.put(EMPTY, EMPTY);
+	}
+
+	static {
+		reset();
+		Global.v().regesiterResetableGlobals(AccessPathSet.class);
+	}
+
+	/** The shared set with the same access paths. */
+	public static AccessPathSet of(Collection<AccessPath> aps) {
+		if (aps instanceof AccessPathSet) {
+			return (AccessPathSet) aps;
+		}
+		if (aps.isEmpty()) {
+			return EMPTY;
+		}
+		AccessPath[] sorted = aps.toArray(new AccessPath[aps.size()]);
+		Arrays.sort(sorted, BY_NUMBER);
+		if (!(aps instanceof Set)) {
+			sorted = removeDuplicates(sorted);
+		}
+		return intern(new AccessPathSet(sorted));
+	}
+
+	private static synchronized AccessPathSet intern(AccessPathSet set) {
+		AccessPathSet shared = _pool.get(set);
+		if (shared == null) {
+			_pool.put(set, set);
+			shared = set;
+		}
+		return shared;
+	}
+
+	/** Number of distinct sets */
+	public static synchronized int getPoolSize() {
+		return _pool.size();
+	}
+
+	private static AccessPath[] removeDuplicates(AccessPath[] sorted) {
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[n - 1] != sorted[i]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+	}
+
+	private final AccessPath[] _paths;
+	private final int _hash;
+
+	private AccessPathSet(AccessPath[] sorted) {
+		this._paths = sorted;
+		// the same as any set of the access paths
+		int hash = 0;
+		for (AccessPath ap : sorted) {
+			hash += ap.hashCode();
+		}
+		this._hash = hash;
+	}
+
+	/** The shared set of the access paths in this set or in <code>aps</code>, this set if nothing is new. */
+	public AccessPathSet union(Collection<AccessPath> aps) {
+		AccessPathSet that = of(aps);
+		if (that == this || that.isEmpty() || isSupersetOf(that)) {
+			return this;
+		}
+		if (isEmpty() || that.isSupersetOf(this)) {
+			return that;
+		}
+		AccessPath[] merged = new AccessPath[_paths.length + that._paths.length];
+		int i = 0, j = 0, n = 0;
+		while (i < _paths.length && j < that._paths.length) {
+			int a = _paths[i].getNumber();
+			int b = that._paths[j].getNumber();
+			if (a < b) {
+				merged[n++] = _paths[i++];
+			} else if (a > b) {
+				merged[n++] = that._paths[j++];
+			} else {
+				merged[n++] = _paths[i++];
+				j++;
+			}
+		}
+		while (i < _paths.length) {
+			merged[n++] = _paths[i++];
+		}
+		while (j < that._paths.length) {
+			merged[n++] = that._paths[j++];
+		}
+		return intern(new AccessPathSet(Arrays.copyOf(merged, n)));
+	}
+
+	/** Whether every access path of <code>that</code> is in this set, by merging the sorted arrays. */
+	public boolean isSupersetOf(AccessPathSet that) {
+		if (that == this) {
+			return true;
+		}
+		if (that._paths.length > _paths.length) {
+			return false;
+		}
+		int i = 0;
+		for (AccessPath ap : that._paths) {
+			int number = ap.getNumber();
+			while (i < _paths.length && _paths[i].getNumber() < number) {
+				i++;
+			}
+			if (i == _paths.length || _paths[i] != ap) {
+				return false;
+			}
+			i++;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (c instanceof AccessPathSet) {
+			return isSupersetOf((AccessPathSet) c);
+		}
+		return super.containsAll(c);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof AccessPath)) {
+			return false;
+		}
+		AccessPath ap = (AccessPath) o;
+		int index = Arrays.binarySearch(_paths, ap, BY_NUMBER);
+		return index >= 0 && _paths[index] == ap;
+	}
+
+	@Override
+	public int size() {
+		return _paths.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _paths.length == 0;
+	}
+
+	@Override
+	public Iterator<AccessPath> iterator() {
+		return new Iterator<AccessPath>() {
+			int next = 0;
+
+			public boolean hasNext() {
+				return next < _paths.length;
+			}
+
+			public AccessPath next() {
+				if (next >= _paths.length) {
+					throw new NoSuchElementException();
+				}
+				return _paths[next++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("AccessPathSet is immutable");
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof AccessPathSet) {
+			AccessPathSet that = (AccessPathSet) o;
+			return that._hash == _hash && Arrays.equals(that._paths, _paths);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return _hash;
+	}
+}
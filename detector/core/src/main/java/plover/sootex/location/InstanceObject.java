@@ -60,7 +60,7 @@ public abstract class InstanceObject implements Numberable {
 	 * @param type
 	 * @return
 	 */
-	public static InstanceObject typeToObject(Type type){
+	public static synchronized InstanceObject typeToObject(Type type){
 		int tId = type.getNumber();
 		InstanceObject o = _type2obj[tId];
 		if(o==null){
@@ -43,7 +43,7 @@ public abstract class Location implements Numberable {
 	}
 	
 	/** Force releasing locations relevant to a given method. */
-	public static void release(SootMethod m){
+	public static synchronized void release(SootMethod m){
 		if(!m.hasActiveBody())
 			return;
 		
@@ -69,7 +69,7 @@ public abstract class Location implements Numberable {
 	 * Construct the Location from an immediate: constant or local.	
 	 * @param value	   Should be of the type Constant or Local
 	 */
-    public static Location valueToLocation(Value value){
+    public static synchronized Location valueToLocation(Value value){
     	Location loc = _VALUE2LOC.get(value);
 		if (loc == null) {			      
 	        if(value instanceof Local || value instanceof ThisRef || value instanceof ParameterRef){
@@ -100,7 +100,7 @@ public abstract class Location implements Numberable {
     }    
  
     /** Get the unique return location of a method. */
-    public static Location methodToRet(SootMethod m){
+    public static synchronized Location methodToRet(SootMethod m){
     	int mId = m.getNumber();
     	MethodRet loc = _METHOD2RET[mId];
 		if (loc == null) {
@@ -115,7 +115,7 @@ public abstract class Location implements Numberable {
         return valueToLocation(method.getActiveBody().getThisLocal()); 
     }    
   
-	public static GlobalLocation getGlobalLocation(SootField field) {
+	public static synchronized GlobalLocation getGlobalLocation(SootField field) {
 		int fId = field.getNumber();
 		GlobalLocation p = (GlobalLocation)_FIELD2LOC[fId];
 		if (null == p) {
@@ -126,7 +126,7 @@ public abstract class Location implements Numberable {
 	} 
 	
 	/** Used for field-based analysis. Do not distinguish instance objects. */
-	public static HeapField getHeapFieldLocation(SootField field) {
+	public static synchronized HeapField getHeapFieldLocation(SootField field) {
 		int fId = field.getNumber();
 		HeapField p = (HeapField)_FIELD2LOC[fId];
 		if (null == p) {
@@ -172,7 +172,7 @@ public abstract class Location implements Numberable {
 	} 
 	
 	/** A single abstract location to model all heap memory of a given type. */ 
-	public static HeapLocation getLocationForType(Type t){
+	public static synchronized HeapLocation getLocationForType(Type t){
 		int tId = t.getNumber();
 		HeapLocation p = _TYPE2LOC[tId];
 		if (null == p) {
@@ -187,8 +187,11 @@ public abstract class Location implements Numberable {
 	private int _id; 
 	
     protected Location(){
-    	this._id = COUNT;
-    	COUNT++;    	
+    	// locations may be created by concurrent intra-procedural analyses
+    	synchronized (Location.class) {
+    		this._id = COUNT;
+    		COUNT++;
+    	}
     }
     
     public boolean isPointer(){
@@ -0,0 +1,118 @@
+package plover.sootex.ptsto;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import plover.sootex.location.*;
+import soot.SootField;
+
+/**
+ * Field-sensitive resolution of access paths to the locations they may access, memoized per access path.
+ * The locations of x.f.g are the fields g of the objects pointed to by the locations of its father x.f, so the
+ * common prefixes are resolved once. The points-to sets are queried without a method or statement, so the results
+ * only depend on the points-to query of the resolver.
+ * An access path resolved to more than the cap of locations, or to none, falls back to its root as in the
+ * field-insensitive mode, and so do its extensions. Thread safe.
+ */
+public class AccessPathResolver {
+	/** resolved to more locations than the cap */
+	private static final Set<Location> TOO_MANY = Collections.unmodifiableSet(new HashSet<Location>());
+
+	private final IPtsToQuery _query;
+	private final int _maxLocations;
+	private final ConcurrentMap<AccessPath, Set<Location>> _resolved = new ConcurrentHashMap<AccessPath, Set<Location>>();
+	private final AtomicInteger _fallbacks = new AtomicInteger();
+
+	/** @param maxLocations cap of the locations of an access path */
+	public AccessPathResolver(IPtsToQuery query, int maxLocations) {
+		this._query = query;
+		this._maxLocations = maxLocations;
+	}
+
+	public IPtsToQuery getQuery() {
+		return _query;
+	}
+
+	/**
+	 * The locations the access path may access, its root if they are unknown or too many.
+	 * The returned set is shared and must not be modified.
+	 */
+	public Set<Location> resolve(AccessPath ap) {
+		Set<Location> locs = locationsOf(ap);
+		if (locs == TOO_MANY || locs.isEmpty()) {
+			return Collections.singleton(ap.getRoot());
+		}
+		return locs;
+	}
+
+	/** Number of access paths resolved so far */
+	public int size() {
+		return _resolved.size();
+	}
+
+	private Set<Location> locationsOf(AccessPath ap) {
+		Set<Location> locs = _resolved.get(ap);
+		if (locs != null) {
+			return locs;
+		}
+
+		AccessPath father = ap.getFather();
+		if (father == null) {
+			locs = Collections.singleton(ap.getRoot());
+		} else {
+			Set<Location> fatherLocs = locationsOf(father);
+			if (fatherLocs == TOO_MANY) {
+				locs = TOO_MANY;
+			} else {
+				Object accessor = ap.getLastAccessor();
+				Set<InstanceObject> heaps = getPointTos(fatherLocs);
+				if (accessor instanceof SootField) {
+					locs = PtsToHelper.getField(heaps, (SootField) accessor);
+				} else {
+					locs = PtsToHelper.getArrayElement(heaps);
+				}
+				if (locs.size() > _maxLocations) {
+					locs = TOO_MANY;
+					_fallbacks.incrementAndGet();
+				} else {
+					locs = locs.isEmpty() ? Collections.<Location>emptySet() : Collections.unmodifiableSet(locs);
+				}
+			}
+		}
+
+		Set<Location> existing = _resolved.putIfAbsent(ap, locs);
+		return existing != null ? existing : locs;
+	}
+
+	/** Union of the points-to sets, over the bits if the query gives {@link InstanceObjectSet}s. */
+	private Set<InstanceObject> getPointTos(Set<Location> ptrs) {
+		Set<InstanceObject> heaps = Collections.emptySet();
+		boolean copied = false;
+		for (Location ptr : ptrs) {
+			Set<InstanceObject> s = _query.getPointTos(null, null, ptr);
+			if (s.isEmpty()) {
+				continue;
+			}
+			if (heaps.isEmpty()) {
+				heaps = s;
+			} else if (heaps instanceof InstanceObjectSet && s instanceof InstanceObjectSet) {
+				heaps = ((InstanceObjectSet) heaps).union((InstanceObjectSet) s);
+				copied = !(heaps instanceof InstanceObjectSet);
+			} else {
+				if (!copied) {
+					heaps = new HashSet<InstanceObject>(heaps);
+					copied = true;
+				}
+				heaps.addAll(s);
+			}
+		}
+		return heaps;
+	}
+
+	public String toString() {
+		return "AccessPaths: " + _resolved.size() + " resolved, " + _fallbacks.get() + " over " + _maxLocations
+				+ " locations";
+	}
+}
@@ -0,0 +1,136 @@
+package plover.sootex.ptsto;
+
+import plover.sootex.location.InstanceObject;
+
+import java.util.*;
+
+/**
+ * An immutable set of instance objects, stored as a bit set over the object numbers.
+ * The objects are looked up in the array of the query that created the set, see {@link SparkPtsToQuery}, which
+ * also interns the sets so that pointers with the same points-to set share one instance.
+ */
+public final class InstanceObjectSet extends AbstractSet<InstanceObject> {
+	/** objects by number */
+	private final InstanceObject[] _objects;
+	private final BitSet _bits;
+	private final int _size;
+	private final int _hash;
+
+	/** <code>bits</code> must not be changed afterwards. */
+	InstanceObjectSet(InstanceObject[] objects, BitSet bits) {
+		this._objects = objects;
+		this._bits = bits;
+		this._size = bits.cardinality();
+		// the same as any set of the objects
+		int hash = 0;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			hash += objects[i].hashCode();
+		}
+		this._hash = hash;
+	}
+
+	BitSet getBits() {
+		return _bits;
+	}
+
+	/** Whether the sets share an object, by intersecting the bit sets. */
+	public boolean intersects(InstanceObjectSet that) {
+		if (that._objects == _objects) {
+			return _bits.intersects(that._bits);
+		}
+		for (InstanceObject o : that) {
+			if (contains(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** The objects in either set, this set if nothing is new. The union is not interned. */
+	public Set<InstanceObject> union(InstanceObjectSet that) {
+		if (that == this || that.isEmpty() || containsAll(that)) {
+			return this;
+		}
+		if (isEmpty() || that.containsAll(this)) {
+			return that;
+		}
+		if (that._objects == _objects) {
+			BitSet bits = (BitSet) _bits.clone();
+			bits.or(that._bits);
+			return new InstanceObjectSet(_objects, bits);
+		}
+		Set<InstanceObject> union = new HashSet<InstanceObject>(this);
+		union.addAll(that);
+		return union;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof InstanceObject)) {
+			return false;
+		}
+		int number = ((InstanceObject) o).getNumber();
+		return number < _objects.length && _bits.get(number) && _objects[number] == o;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (c instanceof InstanceObjectSet && ((InstanceObjectSet) c)._objects == _objects) {
+			BitSet missing = (BitSet) ((InstanceObjectSet) c)._bits.clone();
+			missing.andNot(_bits);
+			return missing.isEmpty();
+		}
+		return super.containsAll(c);
+	}
+
+	@Override
+	public int size() {
+		return _size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	@Override
+	public Iterator<InstanceObject> iterator() {
+		return new Iterator<InstanceObject>() {
+			int next = _bits.nextSetBit(0);
+
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			public InstanceObject next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				InstanceObject o = _objects[next];
+				next = _bits.nextSetBit(next + 1);
+				return o;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("InstanceObjectSet is immutable");
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof InstanceObjectSet && ((InstanceObjectSet) o)._objects == _objects) {
+			InstanceObjectSet that = (InstanceObjectSet) o;
+			return that._hash == _hash && that._bits.equals(_bits);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return _hash;
+	}
+}
@@ -88,6 +88,9 @@ public class PtsToHelper {
     	//check points-to sets
     	Set pt1 = ptsto.getPointTos(null, null, ptr1);
 		Set pt2 = ptsto.getPointTos(null, null, ptr2);		
+		if(pt1 instanceof InstanceObjectSet && pt2 instanceof InstanceObjectSet){
+			return ((InstanceObjectSet)pt1).intersects((InstanceObjectSet)pt2);
+		}
 		return CollectionUtils.hasInterset(pt1, pt2);
     } 
 
@@ -123,10 +126,45 @@ public class PtsToHelper {
         return cur;
     }
  
-	//TODO performance
+	// cap of the locations of an access path resolved field-sensitively, 0 if field-insensitive
+	private static volatile int _maxAccessedLocations = 0;
+	// the resolver of the last query, almost always the only one
+	private static volatile AccessPathResolver _resolver;
+
+	/**
+	 * Resolve the locations accessed by an access path field-sensitively, see {@link AccessPathResolver}.
+	 * @param maxLocations cap of the locations of an access path, over which its root is used instead.
+	 *                     Set to 0 to only use the roots, i.e., field-insensitive
+	 */
+	public static void setFieldSensitive(int maxLocations){
+		_maxAccessedLocations = maxLocations;
+		_resolver = null;
+	}
+
+	/** The resolver of the query, null if field-insensitive or there is no points-to query. */
+	public static AccessPathResolver getResolver(IPtsToQuery ptsto){
+		if(_maxAccessedLocations <= 0 || ptsto == null){
+			return null;
+		}
+		AccessPathResolver resolver = _resolver;
+		if(resolver == null || resolver.getQuery() != ptsto){
+			synchronized(PtsToHelper.class){
+				resolver = _resolver;
+				if(resolver == null || resolver.getQuery() != ptsto){
+					resolver = new AccessPathResolver(ptsto, _maxAccessedLocations);
+					_resolver = resolver;
+				}
+			}
+		}
+		return resolver;
+	}
+
+	/** The locations accessed by the access path, its root if field-insensitive. The result must not be changed. */
 	public static Set<Location> getAccessedLocations(IPtsToQuery ptsto, Unit stmt, AccessPath ap){
-		// field-sensitive
-//		Set<Location> locs = PtsToHelper.getAliasedLocations(null, ap, ptsto);
+		AccessPathResolver resolver = ap.length() == 0 ? null : getResolver(ptsto);
+		if(resolver != null){
+			return resolver.resolve(ap);
+		}
 		// field-insensitive point-to analysis
 		Set<Location> locs = new HashSet<Location>(Collections.singletonList(ap.getRoot()));
 		return locs;
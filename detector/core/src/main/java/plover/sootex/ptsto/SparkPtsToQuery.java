@@ -2,6 +2,12 @@ package plover.sootex.ptsto;
 
 import java.util.*;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import plover.soot.BoundedCache;
 import plover.sootex.location.*;
 import soot.*;
 import soot.jimple.spark.pag.*;
@@ -11,18 +17,39 @@ import soot.util.*;
 /**
  * Query points-to relations using spark framework.
  * Spark assumes all pointer can points to null which is not explicitly shown.
+ * <p>
+ * The points-to sets are converted to {@link InstanceObjectSet}s once and cached by the location numbers.
+ * Equal sets are interned, so pointers with the same targets share one set. The cache is unbounded unless
+ * a budget of entries is given, and lookups are safe from multiple threads.
  */
 public class SparkPtsToQuery implements IPtsToQuery{
     private final InstanceObject[] _alloc2obj;
     private AllocNode[]  _obj2alloc;
+    /** instance objects by number, the domain of the cached sets */
+    private final InstanceObject[] _objects;
+
+    /** cached sets by location number if the cache is unbounded, replaced under lock when it grows */
+    private volatile InstanceObjectSet[] _cache = new InstanceObjectSet[1024];
+    private final AtomicInteger _cached = new AtomicInteger();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    /** cached sets by location number if the cache is bounded, null otherwise */
+    private final BoundedCache<Integer, InstanceObjectSet> _boundedCache;
+    private final ConcurrentMap<BitSet, InstanceObjectSet> _pool = new ConcurrentHashMap<BitSet, InstanceObjectSet>();
 	
     public SparkPtsToQuery(){
+    	this(BoundedCache.UNBOUNDED);
+    }
+
+    /** @param maxCachedLocations budget of cached points-to sets, {@link BoundedCache#UNBOUNDED} to keep all of them */
+    public SparkPtsToQuery(long maxCachedLocations){
     	PAG _pa = (PAG) Scene.v().getPointsToAnalysis();
         int allocNum = _pa.getNumAllocNodes();
         _alloc2obj = new InstanceObject[allocNum+1];
         _obj2alloc = new AllocNode[allocNum*2];   //maybe not enough
 
         ArrayNumberer numberer = _pa.getAllocNodeNumberer();
+        int maxObj = 0;
         //FIX 2007-06-20  "i<allocNum" => "i<=allocNum"
         for(int i=1; i<=allocNum; i++){//0 - null pointer
             AllocNode node = (AllocNode)numberer.get(i);
@@ -30,8 +57,17 @@ public class SparkPtsToQuery implements IPtsToQuery{
     	    _alloc2obj[i] = loc;
     	    if(loc != null){
                 setHeapObj2NodeMap(loc,node);
+                maxObj = Math.max(maxObj, loc.getNumber());
     	    }
         }  
+
+        _objects = new InstanceObject[maxObj+1];
+        for(InstanceObject obj: _alloc2obj){
+        	if(obj != null)
+        		_objects[obj.getNumber()] = obj;
+        }
+        _boundedCache = maxCachedLocations == BoundedCache.UNBOUNDED ? null
+        		: new BoundedCache<Integer, InstanceObjectSet>("PtsTo", maxCachedLocations, null);
     }
     
     private final void setHeapObj2NodeMap(final InstanceObject hObj, final AllocNode node){
@@ -89,25 +125,17 @@ public class SparkPtsToQuery implements IPtsToQuery{
     	return result;
     }
     
-    private static final int CACHE_SIZE = 11;
-    private final Location[] cachedLocs = new Location[CACHE_SIZE];
-    @SuppressWarnings("unchecked")
-	private final Set<InstanceObject>[] cachedPtsTos = new Set[CACHE_SIZE];
-    private int cacheTail = 0;
-
-
     public Set<InstanceObject> getPointTos(SootMethod m, final Unit stmt, final Location ptr){
     	if(!ptr.isPointer())
     		return Collections.emptySet(); 
     	
-    	// search in cache
-      	for(int i=0; i<CACHE_SIZE; i++){
-    		if(cachedLocs[i]==ptr){
-    			return cachedPtsTos[i];
-    		}
+    	int number = ptr.getNumber();
+    	InstanceObjectSet cached = lookup(number);
+    	if(cached != null){
+    		return cached;
     	}
       	    	
-    	Set<InstanceObject> pt2Set = new HashSet<InstanceObject>();
+    	BitSet bits = new BitSet();
     	
     	if(ptr instanceof MethodRet){
     		//collect points-to information from return pointers
@@ -116,38 +144,92 @@ public class SparkPtsToQuery implements IPtsToQuery{
             for(Location loc: sources){                   
                 if(loc!=null){          
                     Set<InstanceObject> s = getPointTos(m, stmt,loc);
-                    pt2Set.addAll(s);
+                    if(s instanceof InstanceObjectSet){
+                    	bits.or(((InstanceObjectSet)s).getBits());
+                    }
                 }                
             }
         } else {
     		PointsToSet p2St = getPointTos(ptr);
     		if(p2St != null)
-    			pt2SetToHeapObjSet(p2St,pt2Set);
+    			pt2SetToHeapObjSet(p2St,bits);
     		//else
     		//	pt2Set.add(Location.UNKNOWN);
     	}
     	
-    	// update cache
-    	cachedLocs[cacheTail] = ptr;
-    	cachedPtsTos[cacheTail] = pt2Set;
-    	cacheTail = (cacheTail+1)%CACHE_SIZE;
-    	
-    	return pt2Set;
+    	return store(number, intern(bits));
+    }
+
+    /** Hits and misses of the cache and the number of distinct points-to sets. */
+    public String getCacheSummary(){
+    	String distinct = _pool.size() + " distinct sets";
+    	if(_boundedCache != null){
+    		return _boundedCache + ", " + distinct;
+    	}
+    	return "PtsTo: " + _cached.get() + " entries, " + _hits.sum() + " hits, " + _misses.sum() + " misses, "
+    			+ distinct;
     }
 
-	
     ////////////////////// Private part ///////////////////////////////////////
+    private final InstanceObjectSet lookup(int number){
+    	if(_boundedCache != null){
+    		return _boundedCache.get(number);
+    	}
+    	// a stale array only causes a miss, the sets are immutable
+    	InstanceObjectSet[] cache = _cache;
+    	InstanceObjectSet set = number < cache.length ? cache[number] : null;
+    	if(set != null){
+    		_hits.increment();
+    	} else {
+    		_misses.increment();
+    	}
+    	return set;
+    }
+    
+    /** Cache the set, returns the one cached first if another thread computed it as well. */
+    private final InstanceObjectSet store(int number, InstanceObjectSet set){
+    	if(_boundedCache != null){
+    		return _boundedCache.put(number, set);
+    	}
+    	synchronized(this){
+    		InstanceObjectSet[] cache = _cache;
+    		if(number >= cache.length){
+    			cache = Arrays.copyOf(cache, Math.max(cache.length * 2, number + 1));
+    		}
+    		InstanceObjectSet existing = cache[number];
+    		if(existing != null){
+    			return existing;
+    		}
+    		cache[number] = set;
+    		_cache = cache;
+    		_cached.incrementAndGet();
+    		return set;
+    	}
+    }
+    
+    private final InstanceObjectSet intern(BitSet bits){
+    	InstanceObjectSet set = _pool.get(bits);
+    	if(set == null){
+    		set = new InstanceObjectSet(_objects, bits);
+    		InstanceObjectSet existing = _pool.putIfAbsent(bits, set);
+    		if(existing != null){
+    			set = existing;
+    		}
+    	}
+    	return set;
+    }
+    
     private final class PtSetVisitor extends P2SetVisitor {
-    	final Set<InstanceObject> _hset;
+    	final BitSet _bits;
     	
-        public PtSetVisitor(final Set<InstanceObject> hSet){
-            this._hset=hSet;
+        public PtSetVisitor(final BitSet bits){
+            this._bits=bits;
         }
         public void visit(final Node n)  {
             assert(n instanceof AllocNode);
             
         	InstanceObject obj=_alloc2obj[n.getNumber()];
-        	if(obj!=null)   _hset.add(obj);                                  
+        	if(obj!=null)   _bits.set(obj.getNumber());                                  
         }
         
         public boolean getReturnValue(){
@@ -155,7 +237,7 @@ public class SparkPtsToQuery implements IPtsToQuery{
         }
     }
     
-    private final void pt2SetToHeapObjSet(final PointsToSet ptSt, final Set<InstanceObject> out){
+    private final void pt2SetToHeapObjSet(final PointsToSet ptSt, final BitSet out){
         if(ptSt instanceof PointsToSetInternal){
             PointsToSetInternal ptStInternal=(PointsToSetInternal)ptSt;
             PtSetVisitor visitor = new PtSetVisitor(out);
@@ -165,4 +247,4 @@ public class SparkPtsToQuery implements IPtsToQuery{
             throw new RuntimeException("Unsupported type: "+ptSt.getClass());         
         }
      }
-}
\ No newline at end of file
+}
@@ -4,14 +4,11 @@ import java.util.*;
 
 import plover.soot.Cache;
 import plover.soot.Global;
-import plover.soot.CollectionUtils;
 import plover.soot.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import soot.AnySubType;
 import soot.ArrayType;
 import soot.Context;
-import soot.Hierarchy;
 import soot.Local;
 import soot.PointsToAnalysis;
 import soot.PointsToSet;
@@ -28,6 +25,10 @@ import soot.util.Numberer;
 
 /**
  * Type-based points-to analysis
+ * <p>
+ * The subtypes of every class are precomputed as bit sets over the type numbers, so that a points-to set is the
+ * intersection of the subtypes of the declared type with the concrete classes, and the sets of array types and
+ * fields are unions of bit sets.
  */
 public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
 	public static final Logger LOGGER = LoggerFactory.getLogger(TypeBasedPointsToAnalysis.class);
@@ -38,7 +39,7 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
 	}
 	
 	static{
-		Global.v().regesiterResetableGlobals(TypeBasedPtsToQuery.class);
+		Global.v().regesiterResetableGlobals(TypeBasedPointsToAnalysis.class);
 	}
 	
 	public static TypeBasedPointsToAnalysis v(boolean allReachable){
@@ -53,6 +54,14 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
 	private final Type OBJECT_TYPE = Scene.v().getObjectType();
 	private final boolean _allReachable;
 	private Numberer _nodeNumberer;
+	/** classes and interfaces that are the type or its subtypes, by the number of a class type, null if not a class */
+	private final BitSet[] _subtypes;
+	/** concrete class types */
+	private final BitSet _concreteTypes = new BitSet();
+	/** class and array types, which an Object may be */
+	private final BitSet _objectTypes = new BitSet();
+	/** objects reachable from the fields, by the number of a type */
+	private final TypeBasedPointsToSet[] _type2fieldPtsto;
 	
 	/**
 	 * @param allReachable Should all methods considered reachable?
@@ -89,7 +98,90 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
         
         _nodeNumberer = Scene.v().getTypeNumberer();
         _type2ptsto = new TypeBasedPointsToSet[_nodeNumberer.size()+1];
+        _type2fieldPtsto = new TypeBasedPointsToSet[_nodeNumberer.size()+1];
+        _subtypes = new BitSet[_nodeNumberer.size()+1];
         _allReachable = allReachable;
+
+        Date startTime = new Date();
+        buildSubtypes();
+        Date endTime = new Date();
+        LOGGER.info(">> subtypes of {} types in {}", _nodeNumberer.size(), Utils.getTimeConsumed(startTime, endTime));
+    }
+
+    /** Add each class to the subtypes of itself, its super classes and the interfaces they implement. */
+    private void buildSubtypes(){
+    	int count = _nodeNumberer.size();
+    	for(int i=1; i<=count; i++){
+    		Type t = (Type)_nodeNumberer.get(i);
+    		if(t instanceof RefType || t instanceof ArrayType){
+    			_objectTypes.set(i);
+    		}
+    	}
+
+    	for(SootClass cls: Scene.v().getClasses()){
+    		// the same classes as in the hierarchy
+    		if(cls.resolvingLevel() < SootClass.HIERARCHY){
+    			continue;
+    		}
+    		int n = cls.getType().getNumber();
+    		if(subtypesOf(cls) == null){
+    			continue;
+    		}
+    		if(cls.isConcrete()){
+    			_concreteTypes.set(n);
+    		}
+
+    		if(cls.isInterface()){
+    			addToSuperInterfaces(cls, n);
+    		}
+    		else{
+    			for(SootClass sup = cls; sup != null; sup = sup.hasSuperclass() ? sup.getSuperclass() : null){
+    				BitSet subtypes = subtypesOf(sup);
+    				if(subtypes != null){
+    					subtypes.set(n);
+    				}
+    				for(SootClass itf: sup.getInterfaces()){
+    					addToSuperInterfaces(itf, n);
+    				}
+    			}
+    		}
+    	}
+    }
+
+    private void addToSuperInterfaces(SootClass itf, int n){
+    	BitSet subtypes = subtypesOf(itf);
+    	if(subtypes == null || subtypes.get(n)){
+    		return;
+    	}
+    	subtypes.set(n);
+    	for(SootClass sup: itf.getInterfaces()){
+    		addToSuperInterfaces(sup, n);
+    	}
+    }
+
+    /** The subtypes of the class, null if its type is numbered after the analysis is built. */
+    private BitSet subtypesOf(SootClass cls){
+    	int n = cls.getType().getNumber();
+    	if(n <= 0 || n >= _subtypes.length){
+    		return null;
+    	}
+    	BitSet subtypes = _subtypes[n];
+    	if(subtypes == null){
+    		subtypes = new BitSet();
+    		_subtypes[n] = subtypes;
+    	}
+    	return subtypes;
+    }
+
+    /** The subtypes of the type of a class, or the type itself if unknown. */
+    private BitSet subtypesOf(RefType type){
+    	int n = type.getNumber();
+    	BitSet subtypes = n > 0 && n < _subtypes.length ? _subtypes[n] : null;
+    	if(subtypes == null){
+    		subtypes = new BitSet();
+    		subtypes.set(n);
+    	}
+    	return subtypes;
     }
 	
 	public Numberer getObjectNumberer(){
@@ -144,17 +236,16 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
 	 */
 	public PointsToSet reachingObjectsOfArrayElement(PointsToSet s) {
 		if(s instanceof TypeBasedPointsToSet){
-			TypeBasedPointsToSet ptsto = new TypeBasedPointsToSet();
+			BitSet bits = new BitSet();
 			for(Type t: (TypeBasedPointsToSet)s){
 				if(t instanceof ArrayType){
 					ArrayType at = (ArrayType)t;
 					Type p = at.getElementType();
-					TypeBasedPointsToSet tgts = reachingObjects(p);					
-					ptsto.addAll(tgts);
+					bits.or(reachingObjects(p).getBits());
 				}
 			}
 			
-			return ptsto;
+			return new TypeBasedPointsToSet(bits);
 		}
 		else{
 			throw new RuntimeException("Parameter of types other than TypeBasedPointsToSet are not acceptable.");
@@ -169,97 +260,53 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
     		return ptsto;
     	}    	
     	
-    	ptsto = toConcreteTypes(type);
+    	// the bits are set before the set is created, so threads seeing the set also see its bits
+    	ptsto = new TypeBasedPointsToSet(toConcreteTypes(type));
     	_type2ptsto[tId] = ptsto;
      
         return ptsto;
     }    
     
     // Object o = new String[1]
-    private TypeBasedPointsToSet toConcreteTypes(Type type){
-    	TypeBasedPointsToSet typeSet = new TypeBasedPointsToSet();
+    private BitSet toConcreteTypes(Type type){
+    	BitSet typeSet = new BitSet();
     	
     	// Object type can also reference to arrays
     	if(type==OBJECT_TYPE){
-    		Numberer numberer = Scene.v().getTypeNumberer();
-    		int count = numberer.size();
-    		for(int i=1; i<=count; i++){
-    			Type t = (Type)numberer.get(i);
-    			if(t instanceof RefType || t instanceof ArrayType){
-    				typeSet.add(t);
-    			}
-    			else if(t instanceof AnySubType){
-    				
-    			}
-    		}
+    		typeSet.or(_objectTypes);
     	}
     	else if(type instanceof RefType){
-        	SootClass cls = ((RefType)type).getSootClass();
-        	if(cls.isConcrete()){
-        		typeSet.add(type);
-        	}
-        	
-        	Hierarchy hierarchy = Scene.v().getActiveHierarchy();
-        	Collection<?> classes;
-        	if(cls.isInterface()){
-        		classes = hierarchy.getImplementersOf(cls);
-        	}
-        	else{
-        		classes = hierarchy.getSubclassesOf(cls);
-        	}        	
-         
-        	for(Iterator<?> it=classes.iterator();it.hasNext();){
-        		SootClass subCls = (SootClass)it.next();
-        		if(subCls.isConcrete()){
-        			Type subType = subCls.getType();
-        			typeSet.add(subType);
-        		}
-        	}            	
+    		// the type if concrete, and the concrete subclasses or implementers
+    		typeSet.or(subtypesOf((RefType)type));
+    		typeSet.and(_concreteTypes);
         }
     	else if(type instanceof ArrayType){
         	//handle the possibility: Object[] array = new String[]
         	Type elmtType = ((ArrayType)type).getArrayElementType();
         	if(elmtType instanceof PrimType){
-        		typeSet.add(type);
+        		typeSet.set(type.getNumber());
         	}
         	else if(elmtType instanceof RefType){
         		// The base of an array type does not necessary to be concrete
         		// add the current type
-        		typeSet.add(type);
+        		typeSet.set(type.getNumber());
         		
-        		// any sub type for the element type
-        		SootClass cls = ((RefType)elmtType).getSootClass();
-        		Hierarchy hierarchy = Scene.v().getActiveHierarchy();
-        		Collection<SootClass> subClassesAndInterfaces;
-        		if(cls.isInterface()){
-        			List<SootClass> interfaces = hierarchy.getSubinterfacesOf(cls);
-        			List<SootClass> implementations = hierarchy.getImplementersOf(cls);
-        			subClassesAndInterfaces = new ArrayList<SootClass>(interfaces);
-        			subClassesAndInterfaces.addAll(implementations);
-        		}
-        		else{
-        			subClassesAndInterfaces = hierarchy.getSubclassesOf(cls);
-        		} 
-                
-            	Collection<Type> elementSubTypes = new HashSet<Type>();
-            	for(SootClass c: subClassesAndInterfaces){
-            		elementSubTypes.add(c.getType());
-            	}    
-            	
-        		for(Type subType: elementSubTypes){
+        		// any sub type for the element type, including interfaces and abstract classes
+        		BitSet elementSubTypes = subtypesOf((RefType)elmtType);
+        		for(int i=elementSubTypes.nextSetBit(0); i>=0; i=elementSubTypes.nextSetBit(i+1)){
         			// Only existing ArrayType(s) are considered. Avoid creating new types
         			// which may cause type exploding
-            		ArrayType at = subType.getArrayType();
-            		if(at!=null)
-            			typeSet.add(at);
-            	}    
+        			ArrayType at = ((Type)_nodeNumberer.get(i)).getArrayType();
+        			if(at!=null)
+        				typeSet.set(at.getNumber());
+        		}
         	}
         	else if(elmtType instanceof ArrayType){
-        		TypeBasedPointsToSet concreteTypes = toConcreteTypes(elmtType);
-        		for(Type t: concreteTypes){
-            		Type concreteType = t.getArrayType();
+        		BitSet concreteTypes = reachingObjects(elmtType).getBits();
+        		for(int i=concreteTypes.nextSetBit(0); i>=0; i=concreteTypes.nextSetBit(i+1)){
+        			Type concreteType = ((Type)_nodeNumberer.get(i)).getArrayType();
             		if(concreteType!=null){
-            			typeSet.add(concreteType);
+            			typeSet.set(concreteType.getNumber());
             		}            		
             	}   
         	}
@@ -272,7 +319,7 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
     public boolean mayAliased(Type a, Type b){
     	TypeBasedPointsToSet pt2setA = reachingObjects(a);
     	TypeBasedPointsToSet pt2setB = reachingObjects(b);    	
-    	return CollectionUtils.hasInterset(pt2setA, pt2setB);
+    	return pt2setA.getBits().intersects(pt2setB.getBits());
     }
     
     /** 
@@ -280,23 +327,30 @@ public class TypeBasedPointsToAnalysis implements PointsToAnalysis {
      *        interfaces and abstract classes do not have reaching objects
      */
     public TypeBasedPointsToSet reachingObjectsOfAllFields(Type node){
-    	TypeBasedPointsToSet result = new TypeBasedPointsToSet();
-        if(node instanceof RefType){
-        	SootClass cls = ((RefType)node).getSootClass();
-        	if(cls.isConcrete()){
-        		Set<SootField> fields = Cache.v().getAllInstanceFields(cls);
-                for(SootField f: fields){
-                	TypeBasedPointsToSet p2set = reachingObjects(f.getType());
-                	result.addAll(p2set);
-                }
-        	}        	
-        }
-        else if(node instanceof ArrayType){
-        	Type elementType = ((ArrayType)node).getArrayElementType();
-        	TypeBasedPointsToSet p2set = reachingObjects(elementType);            	
-        	result.addAll(p2set);
-        }
-        
-        return result;
+    	int tId = node.getNumber();
+    	TypeBasedPointsToSet fieldPtsto = tId < _type2fieldPtsto.length ? _type2fieldPtsto[tId] : null;
+    	if(fieldPtsto == null){
+    		BitSet bits = new BitSet();
+    		if(node instanceof RefType){
+    			SootClass cls = ((RefType)node).getSootClass();
+    			if(cls.isConcrete()){
+    				Set<SootField> fields = Cache.v().getAllInstanceFields(cls);
+    				for(SootField f: fields){
+    					bits.or(reachingObjects(f.getType()).getBits());
+    				}
+    			}        	
+    		}
+    		else if(node instanceof ArrayType){
+    			Type elementType = ((ArrayType)node).getArrayElementType();
+    			bits.or(reachingObjects(elementType).getBits());
+    		}
+    		fieldPtsto = new TypeBasedPointsToSet(bits);
+    		if(tId < _type2fieldPtsto.length){
+    			_type2fieldPtsto[tId] = fieldPtsto;
+    		}
+    	}
+
+    	// a copy, the callers may change it
+    	return new TypeBasedPointsToSet((BitSet)fieldPtsto.getBits().clone());
     }
 }
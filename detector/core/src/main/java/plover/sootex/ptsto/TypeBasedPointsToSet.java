@@ -1,24 +1,110 @@
 package plover.sootex.ptsto;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
-import plover.soot.CollectionUtils;
 import soot.PointsToSet;
+import soot.Scene;
 import soot.Type;
 import soot.jimple.ClassConstant;
 
 /**
- *
+ * A set of types as a bit set over the type numbers, so unions and intersections are word-level operations.
  */
-@SuppressWarnings("serial")
-public class TypeBasedPointsToSet extends HashSet<Type> implements PointsToSet {
+public class TypeBasedPointsToSet extends AbstractSet<Type> implements PointsToSet {
+	private final BitSet _bits;
+
+	public TypeBasedPointsToSet() {
+		this(new BitSet());
+	}
+
+	/** <code>bits</code> is owned by the set afterwards. */
+	TypeBasedPointsToSet(BitSet bits) {
+		this._bits = bits;
+	}
+
+	BitSet getBits() {
+		return _bits;
+	}
+
+	public boolean add(Type type) {
+		int number = type.getNumber();
+		if (_bits.get(number)) {
+			return false;
+		}
+		_bits.set(number);
+		return true;
+	}
+
+	public boolean addAll(Collection<? extends Type> c) {
+		if (c instanceof TypeBasedPointsToSet) {
+			int size = _bits.cardinality();
+			_bits.or(((TypeBasedPointsToSet) c)._bits);
+			return _bits.cardinality() != size;
+		}
+		return super.addAll(c);
+	}
+
+	public boolean contains(Object o) {
+		return o instanceof Type && _bits.get(((Type) o).getNumber());
+	}
+
+	public int size() {
+		return _bits.cardinality();
+	}
 
 	/* (non-Javadoc)
 	 * @see soot.PointsToSet#isEmpty()
 	 */
-	public boolean isEmpty() {		 
-		return super.isEmpty();
+	public boolean isEmpty() {
+		return _bits.isEmpty();
+	}
+
+	public void clear() {
+		_bits.clear();
+	}
+
+	public Iterator<Type> iterator() {
+		return new Iterator<Type>() {
+			int next = _bits.nextSetBit(0);
+			int last = -1;
+
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			public Type next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = _bits.nextSetBit(next + 1);
+				return Scene.v().getTypeNumberer().get(last);
+			}
+
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				_bits.clear(last);
+				last = -1;
+			}
+		};
+	}
+
+	public boolean equals(Object o) {
+		if (o instanceof TypeBasedPointsToSet) {
+			return _bits.equals(((TypeBasedPointsToSet) o)._bits);
+		}
+		return super.equals(o);
+	}
+
+	public int hashCode() {
+		return super.hashCode();
 	}
 
 	/* (non-Javadoc)
@@ -28,12 +114,12 @@ public class TypeBasedPointsToSet extends HashSet<Type> implements PointsToSet {
 		if(this == other){
 			return true;
 		}
-		
+
 		if(!(other instanceof TypeBasedPointsToSet)){
 			throw new RuntimeException("parameter type unsupported.");
 		}
-		 
-		return CollectionUtils.hasInterset(this, (TypeBasedPointsToSet)other);
+
+		return _bits.intersects(((TypeBasedPointsToSet) other)._bits);
 	}
 
 	/* (non-Javadoc)
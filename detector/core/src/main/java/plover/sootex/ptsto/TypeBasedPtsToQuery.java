@@ -1,6 +1,8 @@
 package plover.sootex.ptsto;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import plover.sootex.location.InstanceObject;
 import plover.sootex.location.Location;
@@ -11,6 +13,8 @@ import soot.*;
  */
 public class TypeBasedPtsToQuery implements IPtsToQuery{
     private final boolean _allReachable; 
+    /** objects of the types a pointer of the declared type can point to, by declared type */
+    private final ConcurrentMap<Type, Set<InstanceObject>> _type2objects = new ConcurrentHashMap<Type, Set<InstanceObject>>();
 	
     public TypeBasedPtsToQuery(boolean allReachable){  
     	TypeBasedPointsToAnalysis.v(allReachable);
@@ -20,6 +24,10 @@ public class TypeBasedPtsToQuery implements IPtsToQuery{
     public void getPointTos(Type type, Set<InstanceObject> pt2Set){
     	Set<Type> set = TypeBasedPointsToAnalysis.v(_allReachable).reachingObjects(type);
         for(Type t: set){
+        	// classes only referenced by signatures have no fields to build the objects with
+        	if(t instanceof RefType && ((RefType)t).getSootClass().resolvingLevel() < SootClass.HIERARCHY){
+        		continue;
+        	}
         	InstanceObject o = InstanceObject.typeToObject(t);
         	pt2Set.add(o);
         }
@@ -29,8 +37,14 @@ public class TypeBasedPtsToQuery implements IPtsToQuery{
     	if(!ptr.isPointer())
     		return Collections.emptySet();
 
-    	Set<InstanceObject> pt2Set = new HashSet<InstanceObject>();
-    	getPointTos(ptr.getType(),pt2Set);
+    	Type type = ptr.getType();
+    	Set<InstanceObject> pt2Set = _type2objects.get(type);
+    	if(pt2Set == null){
+    		pt2Set = new HashSet<InstanceObject>();
+    		getPointTos(type,pt2Set);
+    		pt2Set = Collections.unmodifiableSet(pt2Set);
+    		_type2objects.putIfAbsent(type, pt2Set);
+    	}
     	return pt2Set;
     }
 }
\ No newline at end of file
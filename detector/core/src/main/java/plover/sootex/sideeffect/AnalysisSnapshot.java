@@ -0,0 +1,816 @@
+package plover.sootex.sideeffect;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import plover.soot.Cache;
+import plover.soot.SootUtils;
+import plover.soot.Utils;
+import plover.soot.hammock.CFGEntry;
+import plover.soot.hammock.CFGExit;
+import plover.sootex.location.AccessPath;
+import plover.sootex.location.AccessPathSet;
+import plover.sootex.location.GlobalLocation;
+import plover.sootex.location.Location;
+import plover.sootex.location.StackLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.toolkits.graph.DirectedGraph;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent snapshot of an analysis run, i.e., the refined call graph, the escape/fresh results of
+ * {@link FastEscapeAnalysis}, the mod/use summaries of {@link SideEffectAnalysis} and the skippable units found
+ * in entry methods.
+ * Methods and fields are keyed by their signatures, locals and units by their positions in the Jimple body,
+ * which are stable as long as the class is not changed. The snapshot records the hash of each class on the
+ * classpath, so a stale snapshot can be detected, and the results of unchanged methods can still be reused.
+ *
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public class AnalysisSnapshot {
+    public static final Logger LOGGER = LoggerFactory.getLogger(AnalysisSnapshot.class);
+
+    private static final String MAGIC = "PLOVER-SNAPSHOT";
+    private static final int VERSION = 2;
+
+    private static final int CFG_ENTRY = -1;
+    private static final int CFG_EXIT = -2;
+
+    private static final Kind[] KINDS = new Kind[]{
+            Kind.INVALID, Kind.STATIC, Kind.VIRTUAL, Kind.INTERFACE, Kind.SPECIAL, Kind.CLINIT, Kind.THREAD,
+            Kind.EXECUTOR, Kind.ASYNCTASK, Kind.FINALIZE, Kind.HANDLER, Kind.INVOKE_FINALIZE, Kind.PRIVILEGED,
+            Kind.NEWINSTANCE, Kind.REFL_INVOKE, Kind.REFL_CONSTR_NEWINSTANCE, Kind.REFL_CLASS_NEWINSTANCE
+    };
+
+    /** checksum of all classes on the classpath */
+    private String checksum;
+    private Map<String, String> classHashes;
+    private List<String> entryPoints;
+    private List<String> options;
+
+    private String[] methods;
+    /** (source method, unit index, target method) of call edges */
+    private int[] edges;
+    private String[] edgeKinds;
+    private Map<String, Set<String>> method2edges;
+
+    private boolean hasSideEffect;
+    private Map<String, MethodSummary> summaries = new HashMap<>();
+    /** skippable units of entry methods, unit index -> logging IDs */
+    private Map<String, Map<Integer, Set<String>>> overheads = new LinkedHashMap<>();
+
+    private AnalysisSnapshot() {
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public Map<String, String> getClassHashes() {
+        return classHashes;
+    }
+
+    /**
+     * Hash the bytes of all classes on the classpath. If a class appears more than once, the first one is hashed.
+     * @return class name -> SHA-1 of class bytes
+     */
+    public static Map<String, String> hashClasses(String classpath) throws IOException {
+        Date startTime = new Date();
+        Map<String, String> classHashes = new HashMap<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            File file = new File(entry);
+            if (file.isDirectory()) {
+                hashClassesInDirectory(file, "", classHashes);
+            } else if (file.isFile()) {
+                try (ZipFile zip = new ZipFile(file)) {
+                    Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        ZipEntry zipEntry = zipEntries.nextElement();
+                        String className = toClassName(zipEntry.getName());
+                        if (zipEntry.isDirectory() || className == null || classHashes.containsKey(className)) {
+                            continue;
+                        }
+                        try (InputStream in = zip.getInputStream(zipEntry)) {
+                            classHashes.put(className, Hashing.sha1().hashBytes(ByteStreams.toByteArray(in)).toString());
+                        }
+                    }
+                }
+            }
+        }
+        Date endTime = new Date();
+        LOGGER.info("[Snapshot] {} classes hashed in {}", classHashes.size(), Utils.getTimeConsumed(startTime, endTime));
+        return classHashes;
+    }
+
+    private static void hashClassesInDirectory(File dir, String prefix, Map<String, String> classHashes)
+            throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                hashClassesInDirectory(child, path + "/", classHashes);
+            } else {
+                String className = toClassName(path);
+                if (className != null && !classHashes.containsKey(className)) {
+                    classHashes.put(className, com.google.common.io.Files.asByteSource(child).hash(Hashing.sha1()).toString());
+                }
+            }
+        }
+    }
+
+    private static String toClassName(String path) {
+        if (!path.endsWith(".class")) {
+            return null;
+        }
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+
+    private static String checksum(Map<String, String> classHashes) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (Map.Entry<String, String> entry : new TreeMap<>(classHashes).entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+            hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return true if all results in this snapshot can be reused
+     */
+    public boolean isUpToDate(Map<String, String> classHashes, List<String> entryPoints, List<String> options) {
+        return checksum.equals(checksum(classHashes)) && this.entryPoints.equals(entryPoints) && isCompatible(options);
+    }
+
+    /**
+     * @return true if the results of unchanged methods in this snapshot can be reused
+     */
+    public boolean isCompatible(List<String> options) {
+        return this.options.equals(options);
+    }
+
+    /**
+     * Take a snapshot of the whole-program phases.
+     * @param classHashes see {@link #hashClasses(String)}
+     * @param options analysis options affecting the results
+     * @param sideEffect null if the side-effect analysis is disabled
+     */
+    public static AnalysisSnapshot create(Map<String, String> classHashes, List<String> entryPoints,
+                                          List<String> options, CallGraph cg, FastEscapeAnalysis escape,
+                                          SideEffectAnalysis sideEffect) {
+        AnalysisSnapshot snapshot = new AnalysisSnapshot();
+        snapshot.checksum = checksum(classHashes);
+        snapshot.classHashes = classHashes;
+        snapshot.entryPoints = new ArrayList<>(entryPoints);
+        snapshot.options = new ArrayList<>(options);
+
+        List<SootMethod> methods = new ArrayList<>();
+        Map<SootMethod, Integer> method2index = new HashMap<>();
+        for (Object o : Cache.v().getReverseTopologicalOrder()) {
+            indexMethod((SootMethod) o, methods, method2index);
+        }
+        for (Edge edge : cg) {
+            indexMethod(edge.src(), methods, method2index);
+            indexMethod(edge.tgt(), methods, method2index);
+        }
+        snapshot.methods = new String[methods.size()];
+        for (int i = 0; i < methods.size(); i++) {
+            snapshot.methods[i] = methods.get(i).getSignature();
+        }
+
+        snapshot.edges = new int[cg.size() * 3];
+        snapshot.edgeKinds = new String[cg.size()];
+        Map<SootMethod, Map<Unit, Integer>> unitIndices = new HashMap<>();
+        int i = 0;
+        for (Edge edge : cg) {
+            snapshot.edges[i * 3] = method2index.get(edge.src());
+            snapshot.edges[i * 3 + 1] = edge.srcUnit() == null ? -1
+                    : indexUnits(edge.src(), unitIndices).get(edge.srcUnit());
+            snapshot.edges[i * 3 + 2] = method2index.get(edge.tgt());
+            snapshot.edgeKinds[i] = edge.kind().name();
+            i++;
+        }
+
+        snapshot.hasSideEffect = sideEffect != null;
+        for (SootMethod method : methods) {
+            if (!isAnalyzed(escape, method)) {
+                continue;
+            }
+            int id = method.getNumber();
+            Map<Local, Integer> local2index = indexLocals(method);
+            MethodSummary summary = new MethodSummary();
+            summary.escaped = encodeLocals(escape.escapedVars[id], local2index);
+            summary.realEscaped = encodeLocals(escape.realEscapedVars[id], local2index);
+            summary.returned = encodeLocals(escape.returnedVars[id], local2index);
+            summary.nonFresh = encodeLocals(escape.nonFreshVars[id], local2index);
+            summary.escapedMethod = escape.escapedMethod[id];
+            summary.freshMethod = escape.freshMethod[id];
+            if (sideEffect != null) {
+                summary.mod = encodeAccessPaths(sideEffect.getModHeapLocs(method), local2index);
+                summary.use = encodeAccessPaths(sideEffect.getUseHeapLocs(method), local2index);
+                summary.unskippable = sideEffect.hasUnskippableSideEffect(method);
+            }
+            snapshot.summaries.put(method.getSignature(), summary);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Record the skippable units found in an entry method.
+     */
+    public void addOverhead(SootMethod method, Map<Unit, Set<String>> skippableUnits) {
+        Map<Unit, Integer> unit2index = indexUnits(method, new HashMap<>());
+        Map<Integer, Set<String>> overhead = new TreeMap<>();
+        for (Map.Entry<Unit, Set<String>> entry : skippableUnits.entrySet()) {
+            Unit unit = entry.getKey();
+            // the entry and exit of CFG are not in the body
+            int index = unit == CFGEntry.v() ? CFG_ENTRY : unit == CFGExit.v() ? CFG_EXIT : unit2index.get(unit);
+            overhead.put(index, entry.getValue());
+        }
+        overheads.put(method.getSignature(), overhead);
+    }
+
+    private static boolean isAnalyzed(FastEscapeAnalysis escape, SootMethod method) {
+        int id = method.getNumber();
+        return method.isConcrete() && id < escape.escapedVars.length && escape.escapedVars[id] != null;
+    }
+
+    private static void indexMethod(SootMethod method, List<SootMethod> methods, Map<SootMethod, Integer> method2index) {
+        if (!method2index.containsKey(method)) {
+            method2index.put(method, methods.size());
+            methods.add(method);
+        }
+    }
+
+    private static Map<Unit, Integer> indexUnits(SootMethod method, Map<SootMethod, Map<Unit, Integer>> unitIndices) {
+        Map<Unit, Integer> unit2index = unitIndices.get(method);
+        if (unit2index == null) {
+            unit2index = new HashMap<>();
+            for (Unit u : method.retrieveActiveBody().getUnits()) {
+                unit2index.put(u, unit2index.size());
+            }
+            unitIndices.put(method, unit2index);
+        }
+        return unit2index;
+    }
+
+    private static Map<Local, Integer> indexLocals(SootMethod method) {
+        Map<Local, Integer> local2index = new HashMap<>();
+        for (Local local : method.retrieveActiveBody().getLocals()) {
+            local2index.put(local, local2index.size());
+        }
+        return local2index;
+    }
+
+    static int[] encodeLocals(Set<?> vars, Map<Local, Integer> local2index) {
+        if (vars == null) {
+            return null;
+        }
+        // escape sets also contain the special nodes of the constraint graph, only the indexed locals are recorded
+        List<Integer> indices = new ArrayList<>();
+        for (Object var : vars) {
+            Integer index = var instanceof Local ? local2index.get(var) : null;
+            if (index != null) {
+                indices.add(index);
+            }
+        }
+        int[] encoded = new int[indices.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = indices.get(i);
+        }
+        return encoded;
+    }
+
+    static EncodedAccessPath[] encodeAccessPaths(Collection<AccessPath> aps, Map<Local, Integer> local2index) {
+        if (aps == null) {
+            return null;
+        }
+        EncodedAccessPath[] encoded = new EncodedAccessPath[aps.size()];
+        int i = 0;
+        for (AccessPath ap : aps) {
+            EncodedAccessPath eap = new EncodedAccessPath();
+            Location root = ap.getRoot();
+            if (root instanceof StackLocation && ((StackLocation) root).getValue() instanceof Local) {
+                eap.rootLocal = local2index.get(((StackLocation) root).getValue());
+            } else if (root instanceof GlobalLocation) {
+                eap.rootLocal = -1;
+                eap.rootField = ((GlobalLocation) root).getSootField().getSignature();
+            } else {
+                throw new RuntimeException("Unsupported root of access path: " + ap);
+            }
+            Object[] accessors = ap.getAccessors();
+            // null for array element
+            eap.fields = new String[accessors.length];
+            for (int j = 0; j < accessors.length; j++) {
+                if (AccessPath.isFieldSelector(accessors[j])) {
+                    eap.fields[j] = AccessPath.getAccessedField(accessors[j]).getSignature();
+                }
+            }
+            encoded[i++] = eap;
+        }
+        return encoded;
+    }
+
+    public void save(File file) throws IOException {
+        Date startTime = new Date();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(checksum);
+            out.writeInt(classHashes.size());
+            for (Map.Entry<String, String> entry : classHashes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            writeStrings(out, entryPoints.toArray(new String[0]));
+            writeStrings(out, options.toArray(new String[0]));
+
+            writeStrings(out, methods);
+            out.writeInt(edgeKinds.length);
+            for (int i = 0; i < edgeKinds.length; i++) {
+                out.writeInt(edges[i * 3]);
+                out.writeInt(edges[i * 3 + 1]);
+                out.writeInt(edges[i * 3 + 2]);
+                out.writeUTF(edgeKinds[i]);
+            }
+
+            out.writeBoolean(hasSideEffect);
+            out.writeInt(summaries.size());
+            for (Map.Entry<String, MethodSummary> entry : summaries.entrySet()) {
+                MethodSummary summary = entry.getValue();
+                out.writeUTF(entry.getKey());
+                writeInts(out, summary.escaped);
+                writeInts(out, summary.realEscaped);
+                writeInts(out, summary.returned);
+                writeInts(out, summary.nonFresh);
+                out.writeBoolean(summary.escapedMethod);
+                out.writeBoolean(summary.freshMethod);
+                if (hasSideEffect) {
+                    writeAccessPaths(out, summary.mod);
+                    writeAccessPaths(out, summary.use);
+                    out.writeBoolean(summary.unskippable);
+                }
+            }
+
+            out.writeInt(overheads.size());
+            for (Map.Entry<String, Map<Integer, Set<String>>> entry : overheads.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<Integer, Set<String>> unit : entry.getValue().entrySet()) {
+                    out.writeInt(unit.getKey());
+                    writeStrings(out, unit.getValue().toArray(new String[0]));
+                }
+            }
+        }
+        Date endTime = new Date();
+        LOGGER.info("[Snapshot] {} methods and {} call edges saved to {} in {}", summaries.size(), edgeKinds.length,
+                file, Utils.getTimeConsumed(startTime, endTime));
+    }
+
+    /**
+     * @return null if the snapshot does not exist or its format is unknown
+     */
+    public static AnalysisSnapshot read(File file) throws IOException {
+        if (!file.isFile()) {
+            LOGGER.info("[Snapshot] no snapshot is found at {}", file);
+            return null;
+        }
+        Date startTime = new Date();
+        AnalysisSnapshot snapshot = new AnalysisSnapshot();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                LOGGER.warn("[Snapshot] unknown snapshot format of {}", file);
+                return null;
+            }
+            snapshot.checksum = in.readUTF();
+            int classCount = in.readInt();
+            snapshot.classHashes = new HashMap<>(classCount * 2);
+            for (int i = 0; i < classCount; i++) {
+                snapshot.classHashes.put(in.readUTF(), in.readUTF());
+            }
+            snapshot.entryPoints = Arrays.asList(readStrings(in));
+            snapshot.options = Arrays.asList(readStrings(in));
+
+            snapshot.methods = readStrings(in);
+            int edgeCount = in.readInt();
+            snapshot.edges = new int[edgeCount * 3];
+            snapshot.edgeKinds = new String[edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                snapshot.edges[i * 3] = in.readInt();
+                snapshot.edges[i * 3 + 1] = in.readInt();
+                snapshot.edges[i * 3 + 2] = in.readInt();
+                snapshot.edgeKinds[i] = in.readUTF();
+            }
+
+            snapshot.hasSideEffect = in.readBoolean();
+            int summaryCount = in.readInt();
+            for (int i = 0; i < summaryCount; i++) {
+                String signature = in.readUTF();
+                MethodSummary summary = new MethodSummary();
+                summary.escaped = readInts(in);
+                summary.realEscaped = readInts(in);
+                summary.returned = readInts(in);
+                summary.nonFresh = readInts(in);
+                summary.escapedMethod = in.readBoolean();
+                summary.freshMethod = in.readBoolean();
+                if (snapshot.hasSideEffect) {
+                    summary.mod = readAccessPaths(in);
+                    summary.use = readAccessPaths(in);
+                    summary.unskippable = in.readBoolean();
+                }
+                snapshot.summaries.put(signature, summary);
+            }
+
+            int overheadCount = in.readInt();
+            for (int i = 0; i < overheadCount; i++) {
+                String signature = in.readUTF();
+                int unitCount = in.readInt();
+                Map<Integer, Set<String>> overhead = new TreeMap<>();
+                for (int j = 0; j < unitCount; j++) {
+                    int index = in.readInt();
+                    overhead.put(index, new HashSet<>(Arrays.asList(readStrings(in))));
+                }
+                snapshot.overheads.put(signature, overhead);
+            }
+        }
+        Date endTime = new Date();
+        LOGGER.info("[Snapshot] {} methods and {} call edges read from {} in {}", snapshot.summaries.size(),
+                snapshot.edgeKinds.length, file, Utils.getTimeConsumed(startTime, endTime));
+        return snapshot;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        if (ints == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        int[] ints = new int[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+    static void writeAccessPaths(DataOutputStream out, EncodedAccessPath[] aps) throws IOException {
+        if (aps == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(aps.length);
+        for (EncodedAccessPath ap : aps) {
+            out.writeInt(ap.rootLocal);
+            if (ap.rootLocal < 0) {
+                out.writeUTF(ap.rootField);
+            }
+            out.writeInt(ap.fields.length);
+            for (String field : ap.fields) {
+                out.writeBoolean(field != null);
+                if (field != null) {
+                    out.writeUTF(field);
+                }
+            }
+        }
+    }
+
+    static EncodedAccessPath[] readAccessPaths(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        EncodedAccessPath[] aps = new EncodedAccessPath[size];
+        for (int i = 0; i < size; i++) {
+            EncodedAccessPath ap = new EncodedAccessPath();
+            ap.rootLocal = in.readInt();
+            if (ap.rootLocal < 0) {
+                ap.rootField = in.readUTF();
+            }
+            ap.fields = new String[in.readInt()];
+            for (int j = 0; j < ap.fields.length; j++) {
+                if (in.readBoolean()) {
+                    ap.fields[j] = in.readUTF();
+                }
+            }
+            aps[i] = ap;
+        }
+        return aps;
+    }
+
+    /**
+     * Restore the refined call graph. Soot options and entry points must be set before invoking this method.
+     */
+    public CallGraph restoreCallGraph() {
+        SootMethod[] resolved = new SootMethod[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            resolved[i] = resolveMethod(methods[i]);
+        }
+        CallGraph cg = new CallGraph();
+        Map<SootMethod, Unit[]> method2units = new HashMap<>();
+        for (int i = 0; i < edgeKinds.length; i++) {
+            SootMethod src = resolved[edges[i * 3]];
+            int unitIndex = edges[i * 3 + 1];
+            SootMethod tgt = resolved[edges[i * 3 + 2]];
+            Unit srcUnit = null;
+            if (unitIndex >= 0) {
+                Unit[] units = method2units.get(src);
+                if (units == null) {
+                    units = src.retrieveActiveBody().getUnits().toArray(new Unit[0]);
+                    method2units.put(src, units);
+                }
+                srcUnit = units[unitIndex];
+            }
+            cg.addEdge(new Edge(src, srcUnit, tgt, toKind(edgeKinds[i])));
+        }
+        return cg;
+    }
+
+    /**
+     * Restore the escape/fresh results of all methods.
+     */
+    public FastEscapeAnalysis restoreEscapeAnalysis() {
+        Map<SootMethod, MethodSummary> resolved = resolveSummaries();
+        // retrieving bodies may create new methods, so the arrays are allocated at the end
+        for (SootMethod method : resolved.keySet()) {
+            method.retrieveActiveBody();
+        }
+        int arraySize = SootUtils.getMethodCount();
+        FastEscapeAnalysis escape = new FastEscapeAnalysis(null);
+        escape.escapedVars = new Set[arraySize];
+        escape.realEscapedVars = new Set[arraySize];
+        escape.returnedVars = new Set[arraySize];
+        escape.nonFreshVars = new Set[arraySize];
+        escape.escapedMethod = new boolean[arraySize];
+        escape.freshMethod = new boolean[arraySize];
+        for (Map.Entry<SootMethod, MethodSummary> entry : resolved.entrySet()) {
+            SootMethod method = entry.getKey();
+            MethodSummary summary = entry.getValue();
+            Local[] locals = method.getActiveBody().getLocals().toArray(new Local[0]);
+            int id = method.getNumber();
+            escape.escapedVars[id] = decodeLocals(summary.escaped, locals);
+            escape.realEscapedVars[id] = decodeLocals(summary.realEscaped, locals);
+            escape.returnedVars[id] = decodeLocals(summary.returned, locals);
+            escape.nonFreshVars[id] = decodeLocals(summary.nonFresh, locals);
+            escape.escapedMethod[id] = summary.escapedMethod;
+            escape.freshMethod[id] = summary.freshMethod;
+        }
+        return escape;
+    }
+
+    /**
+     * Restore the side-effect summaries of all methods.
+     * @return null if the side-effect analysis was disabled when the snapshot was taken
+     */
+    public SideEffectAnalysis restoreSideEffectAnalysis() {
+        if (!hasSideEffect) {
+            return null;
+        }
+        Map<SootMethod, MethodSummary> resolved = resolveSummaries();
+        for (SootMethod method : resolved.keySet()) {
+            method.retrieveActiveBody();
+        }
+        int arraySize = SootUtils.getMethodCount();
+        Set<AccessPath>[] method2ModHeaps = new Set[arraySize];
+        Set<AccessPath>[] method2UseHeaps = new Set[arraySize];
+        Boolean[] method2Unskippable = new Boolean[arraySize];
+        for (SootMethod method : resolved.keySet()) {
+            restoreSideEffect(method, method2ModHeaps, method2UseHeaps, method2Unskippable);
+        }
+        return new SideEffectAnalysis(method2ModHeaps, method2UseHeaps, method2Unskippable);
+    }
+
+    /**
+     * Restore the side-effect summary of <code>method</code>, the declaring class must be unchanged.
+     * @return false if the summary of the method is not in this snapshot
+     */
+    boolean restoreSideEffect(SootMethod method, Set<AccessPath>[] method2ModHeaps, Set<AccessPath>[] method2UseHeaps,
+                              Boolean[] method2Unskippable) {
+        MethodSummary summary = summaries.get(method.getSignature());
+        if (!hasSideEffect || summary == null) {
+            return false;
+        }
+        Local[] locals = method.retrieveActiveBody().getLocals().toArray(new Local[0]);
+        int id = method.getNumber();
+        method2ModHeaps[id] = decodeAccessPaths(summary.mod, locals);
+        method2UseHeaps[id] = decodeAccessPaths(summary.use, locals);
+        method2Unskippable[id] = summary.unskippable;
+        return true;
+    }
+
+    /**
+     * Restore the skippable units found in entry method <code>method</code>, the declaring class must be unchanged.
+     * @return null if the method was not analyzed
+     */
+    public Map<Unit, Set<String>> restoreOverhead(SootMethod method) {
+        Map<Integer, Set<String>> overhead = overheads.get(method.getSignature());
+        if (overhead == null) {
+            return null;
+        }
+        Unit[] units = method.retrieveActiveBody().getUnits().toArray(new Unit[0]);
+        Map<Unit, Set<String>> skippableUnits = new HashMap<>();
+        for (Map.Entry<Integer, Set<String>> entry : overhead.entrySet()) {
+            int index = entry.getKey();
+            Unit unit = index == CFG_ENTRY ? CFGEntry.v() : index == CFG_EXIT ? CFGExit.v() : units[index];
+            skippableUnits.put(unit, entry.getValue());
+        }
+        return skippableUnits;
+    }
+
+    /**
+     * Find methods whose results in this snapshot can not be reused, i.e., methods declared in changed classes,
+     * methods whose call edges are changed, methods not in the snapshot, and their transitive callers.
+     * @param classHashes class hashes of the current classpath
+     */
+    public Set<SootMethod> findAffectedMethods(CallGraph cg, Collection entries, Map<String, String> classHashes) {
+        Date startTime = new Date();
+        DirectedGraph<List<SootMethod>> componentGraph = SootUtils.getSCCGraphFast(cg, entries);
+        Map<SootMethod, Map<Unit, Integer>> unitIndices = new HashMap<>();
+        LinkedList<List<SootMethod>> workList = new LinkedList<>();
+        int changed = 0;
+        for (List<SootMethod> component : componentGraph) {
+            for (SootMethod method : component) {
+                String className = method.getDeclaringClass().getName();
+                String signature = method.getSignature();
+                if (!Objects.equals(this.classHashes.get(className), classHashes.get(className))
+                        || (method.isConcrete() && !summaries.containsKey(signature))
+                        || !getCallEdges(signature).equals(getCallEdges(cg, method, unitIndices))) {
+                    LOGGER.debug("[Incremental] method {} is changed", signature);
+                    workList.add(component);
+                    changed++;
+                    break;
+                }
+            }
+        }
+
+        // transitive callers of the changed methods
+        Set<List<SootMethod>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<SootMethod> affected = new HashSet<>();
+        while (!workList.isEmpty()) {
+            List<SootMethod> component = workList.removeFirst();
+            if (!visited.add(component)) {
+                continue;
+            }
+            affected.addAll(component);
+            workList.addAll(componentGraph.getPredsOf(component));
+        }
+        Date endTime = new Date();
+        LOGGER.info("[Incremental] {} changed components, {} affected methods found in {}", changed, affected.size(),
+                Utils.getTimeConsumed(startTime, endTime));
+        return affected;
+    }
+
+    private Set<String> getCallEdges(String signature) {
+        if (method2edges == null) {
+            method2edges = new HashMap<>();
+            for (int i = 0; i < edgeKinds.length; i++) {
+                String src = methods[edges[i * 3]];
+                Set<String> callEdges = method2edges.get(src);
+                if (callEdges == null) {
+                    callEdges = new HashSet<>();
+                    method2edges.put(src, callEdges);
+                }
+                callEdges.add(edges[i * 3 + 1] + ":" + methods[edges[i * 3 + 2]] + ":" + edgeKinds[i]);
+            }
+        }
+        Set<String> callEdges = method2edges.get(signature);
+        return callEdges == null ? Collections.emptySet() : callEdges;
+    }
+
+    private static Set<String> getCallEdges(CallGraph cg, SootMethod method,
+                                            Map<SootMethod, Map<Unit, Integer>> unitIndices) {
+        Set<String> callEdges = new HashSet<>();
+        for (Iterator<Edge> it = cg.edgesOutOf(method); it.hasNext(); ) {
+            Edge edge = it.next();
+            int unitIndex = edge.srcUnit() == null ? -1 : indexUnits(method, unitIndices).get(edge.srcUnit());
+            callEdges.add(unitIndex + ":" + edge.tgt().getSignature() + ":" + edge.kind().name());
+        }
+        return callEdges;
+    }
+
+    private Map<SootMethod, MethodSummary> resolveSummaries() {
+        Map<SootMethod, MethodSummary> resolved = new HashMap<>();
+        for (Map.Entry<String, MethodSummary> entry : summaries.entrySet()) {
+            resolved.put(resolveMethod(entry.getKey()), entry.getValue());
+        }
+        return resolved;
+    }
+
+    private static SootMethod resolveMethod(String signature) {
+        SootMethod method = Scene.v().grabMethod(signature);
+        if (method == null) {
+            Scene.v().forceResolve(Scene.v().signatureToClass(signature), SootClass.BODIES);
+            method = Scene.v().grabMethod(signature);
+        }
+        if (method == null) {
+            throw new RuntimeException("Can not find method " + signature);
+        }
+        return method;
+    }
+
+    private static SootField resolveField(String signature) {
+        SootField field = Scene.v().grabField(signature);
+        if (field == null) {
+            Scene.v().forceResolve(Scene.v().signatureToClass(signature), SootClass.SIGNATURES);
+            field = Scene.v().grabField(signature);
+        }
+        if (field == null) {
+            throw new RuntimeException("Can not find field " + signature);
+        }
+        return field;
+    }
+
+    private static Kind toKind(String name) {
+        for (Kind kind : KINDS) {
+            if (kind.name().equals(name)) {
+                return kind;
+            }
+        }
+        throw new RuntimeException("Unknown edge kind " + name);
+    }
+
+    static Set<Local> decodeLocals(int[] indices, Local[] locals) {
+        if (indices == null) {
+            return null;
+        }
+        Set<Local> vars = new HashSet<>(indices.length * 2);
+        for (int index : indices) {
+            vars.add(locals[index]);
+        }
+        return vars;
+    }
+
+    static Set<AccessPath> decodeAccessPaths(EncodedAccessPath[] encoded, Local[] locals) {
+        if (encoded == null) {
+            return null;
+        }
+        Set<AccessPath> aps = new HashSet<>(encoded.length * 2);
+        for (EncodedAccessPath eap : encoded) {
+            Location root = eap.rootLocal >= 0 ? Location.valueToLocation(locals[eap.rootLocal])
+                    : Location.getGlobalLocation(resolveField(eap.rootField));
+            AccessPath ap = AccessPath.getByRoot(root);
+            for (String field : eap.fields) {
+                ap = field == null ? ap.appendArrayRef() : ap.appendFieldRef(resolveField(field));
+            }
+            aps.add(ap);
+        }
+        return AccessPathSet.of(aps);
+    }
+
+    private static class MethodSummary {
+        int[] escaped;
+        int[] realEscaped;
+        int[] returned;
+        int[] nonFresh;
+        boolean escapedMethod;
+        boolean freshMethod;
+        EncodedAccessPath[] mod;
+        EncodedAccessPath[] use;
+        boolean unskippable;
+    }
+
+    /** AccessPath rooted at a local (by position) or a static field, accessors are field signatures or null for [] */
+    static class EncodedAccessPath {
+        int rootLocal;
+        String rootField;
+        String[] fields;
+    }
+}
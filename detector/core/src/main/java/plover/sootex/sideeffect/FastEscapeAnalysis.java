@@ -4,6 +4,7 @@ import plover.soot.Cache;
 import plover.soot.SootUtils;
 import plover.soot.Utils;
 import plover.soot.callgraph.Callees;
+import plover.soot.graph.ComponentScheduler;
 import plover.soot.graph.GraphHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +14,7 @@ import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.shimple.PhiExpr;
 import soot.toolkits.graph.DirectedGraph;
 import soot.toolkits.graph.MutableDirectedGraph;
+import soot.toolkits.graph.PseudoTopologicalOrderer;
 import soot.toolkits.scalar.Pair;
 
 import java.util.*;
@@ -48,6 +50,12 @@ public class FastEscapeAnalysis extends FreshAnalysis implements ILocalityQuery{
 
 	protected List<String> knownSkippableMethods;
 
+	/** number of threads analyzing the call graph components, one by one if it is less than 2 */
+	protected int threads = 1;
+
+	/** results of library methods, the summarized methods are not analyzed */
+	protected LibrarySummaries librarySummaries;
+
 	public FastEscapeAnalysis(CallGraph cg) {
 		super(cg);
 	}
@@ -57,6 +65,21 @@ public class FastEscapeAnalysis extends FreshAnalysis implements ILocalityQuery{
 		initKnownSkippableMethods();
 	}
 
+	/**
+	 * Number of threads analyzing the components of the call graph whose callees are done.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setLibrarySummaries(LibrarySummaries librarySummaries) {
+		this.librarySummaries = librarySummaries;
+	}
+
+	private boolean isSummarized(SootMethod m) {
+		return librarySummaries != null && librarySummaries.isSummarized(m);
+	}
+
 	private void initKnownSkippableMethods() {
 		knownSkippableMethods = new ArrayList<String>(
 				Arrays.asList(
@@ -339,6 +362,33 @@ public class FastEscapeAnalysis extends FreshAnalysis implements ILocalityQuery{
 		return visited;
 	}
 
+	/** Analyze a method if it is concrete and not summarized. */
+	private void returnedAnalysisFor(SootMethod sootMethod) {
+		if (sootMethod.isConcrete() && !isSummarized(sootMethod)) {
+			boolean hasRefReturn = sootMethod.getReturnType() instanceof RefLikeType;
+			if (hasRefReturn) {
+				LOGGER.trace("[LocalityAnalysis] returned analysis for {}: {}",
+						sootMethod.getSignature(), sootMethod.getNumber());
+				returnedAnalysis(sootMethod);
+			} else {
+				returnedVars[sootMethod.getNumber()] = Collections.EMPTY_SET;
+			}
+		}
+	}
+
+	/** Analyze a method if it is concrete and not summarized, after the returned analysis of all methods. */
+	private void escapeAnalysisFor(SootMethod sootMethod) {
+		if (sootMethod.isConcrete() && !isSummarized(sootMethod)) {
+			LOGGER.trace("[LocalityAnalysis] escape analysis for {}: {}",
+					sootMethod.getSignature(), sootMethod.getNumber());
+			escapedAnalysis(sootMethod);
+
+			LOGGER.trace("[LocalityAnalysis] fresh analysis for {}: {}",
+					sootMethod.getSignature(), sootMethod.getNumber());
+			freshAnalysis(sootMethod);
+		}
+	}
+
 	public void build() {
 		Date startTime = new Date();
 
@@ -355,32 +405,38 @@ public class FastEscapeAnalysis extends FreshAnalysis implements ILocalityQuery{
 			mustAliasQuery.build();
 		}
 
-		List<?> rm = Cache.v().getReverseTopologicalOrder();
-		for (Iterator<?> it = rm.iterator(); it.hasNext();) {
-			SootMethod sootMethod = (SootMethod) it.next();
-			if (sootMethod.isConcrete()) {
-				boolean hasRefReturn = sootMethod.getReturnType() instanceof RefLikeType;
-				if (hasRefReturn) {
-					LOGGER.trace("[LocalityAnalysis] returned analysis for {}: {}",
-							sootMethod.getSignature(), sootMethod.getNumber());
-					returnedAnalysis(sootMethod);
-				} else {
-					returnedVars[sootMethod.getNumber()] = Collections.EMPTY_SET;
-				}
-			}
+		if (librarySummaries != null) {
+			librarySummaries.applyEscape(this);
 		}
 
-		for (Iterator<?> it = rm.iterator(); it.hasNext();) {
-			SootMethod sootMethod = (SootMethod) it.next();
-			if (sootMethod.isConcrete()) {
-				LOGGER.trace("[LocalityAnalysis] escape analysis for {}: {}",
-						sootMethod.getSignature(), sootMethod.getNumber());
-				escapedAnalysis(sootMethod);
-
-				LOGGER.trace("[LocalityAnalysis] fresh analysis for {}: {}",
-						sootMethod.getSignature(), sootMethod.getNumber());
-				freshAnalysis(sootMethod);
+		List<?> rm = Cache.v().getReverseTopologicalOrder();
+		if (threads < 2) {
+			for (Iterator<?> it = rm.iterator(); it.hasNext();) {
+				returnedAnalysisFor((SootMethod) it.next());
+			}
+			for (Iterator<?> it = rm.iterator(); it.hasNext();) {
+				escapeAnalysisFor((SootMethod) it.next());
+			}
+		} else {
+			// the callees not analyzed yet are taken as the worst case, so the methods of a component are analyzed
+			// one by one in the reverse topological order, after the components they call
+			Map<Object, Integer> methodIndex = new HashMap<>(rm.size() * 2);
+			for (int i = 0; i < rm.size(); i++) {
+				methodIndex.put(rm.get(i), i);
+			}
+			DirectedGraph<List<SootMethod>> componentGraph = SootUtils.getSCCGraphFast(cg, Scene.v().getEntryPoints());
+			List<List<SootMethod>> componentsOrder = new PseudoTopologicalOrderer<List<SootMethod>>()
+					.newList(componentGraph, true);
+			Map<List<SootMethod>, List<SootMethod>> sortedComponents = new IdentityHashMap<>(componentsOrder.size());
+			for (List<SootMethod> component : componentsOrder) {
+				List<SootMethod> sorted = new ArrayList<>(component);
+				sorted.sort(Comparator.comparing(m -> methodIndex.getOrDefault(m, Integer.MAX_VALUE)));
+				sortedComponents.put(component, sorted);
 			}
+			ComponentScheduler<List<SootMethod>> scheduler = new ComponentScheduler<>(componentGraph, componentsOrder,
+					threads);
+			scheduler.runBottomUp(component -> sortedComponents.get(component).forEach(this::returnedAnalysisFor));
+			scheduler.runBottomUp(component -> sortedComponents.get(component).forEach(this::escapeAnalysisFor));
 		}
 
 		cg = null;
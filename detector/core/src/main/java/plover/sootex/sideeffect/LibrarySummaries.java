@@ -0,0 +1,350 @@
+package plover.sootex.sideeffect;
+
+import plover.soot.Cache;
+import plover.soot.SootUtils;
+import plover.soot.Utils;
+import plover.soot.callgraph.DirectedCallGraph;
+import plover.sootex.location.AccessPath;
+import plover.sootex.location.GlobalLocation;
+import plover.sootex.location.Location;
+import plover.sootex.location.StackLocation;
+import plover.sootex.sideeffect.AnalysisSnapshot.EncodedAccessPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Precomputed escape/fresh and mod/use summaries of library methods, e.g., the methods of the JDK, which are the
+ * same for every analyzed project. Summarized methods are leaves of {@link FastEscapeAnalysis} and
+ * {@link SideEffectAnalysis}: their results are taken from the summaries and their bodies are not analyzed.
+ * The mod/use summaries are also the DEF/USE of the calls in RD/RU analyses.
+ * <p>
+ * Only what the callers read is recorded, i.e., the results on the this local and the parameter locals, which are
+ * keyed by their positions, so a summary does not depend on how the body is jimplified. The summaries are generated
+ * by {@link LibrarySummaryGenerator} for one JDK version, and shipped as the resource
+ * <code>/library-summaries/jdk-VERSION.gz</code>. They are computed on the call graph of the library alone, so calls
+ * back into application code, e.g., <code>hashCode</code> of keys in a map, are not reflected. Such a method is
+ * analyzed from its body instead, see {@link #resolve()}.
+ */
+public class LibrarySummaries {
+    public static final Logger LOGGER = LoggerFactory.getLogger(LibrarySummaries.class);
+
+    private static final String MAGIC = "PLOVER-LIBRARY";
+    private static final int VERSION = 1;
+    private static final String RESOURCE = "/library-summaries/jdk-%s.gz";
+
+    private String jdkVersion;
+    private Map<String, LibrarySummary> summaries = new HashMap<>();
+    /** summarized methods reachable in the call graph, resolved once */
+    private volatile Map<SootMethod, LibrarySummary> resolved;
+    /** the resolved methods whose mod/use summaries are applied */
+    private Set<SootMethod> sideEffectResolved;
+
+    private LibrarySummaries() {
+    }
+
+    public String getJdkVersion() {
+        return jdkVersion;
+    }
+
+    /** Number of summarized methods */
+    public int size() {
+        return summaries.size();
+    }
+
+    /**
+     * Summarize the analyzed methods.
+     * @param sideEffect null if the side-effect analysis is disabled
+     */
+    public static LibrarySummaries create(String jdkVersion, Collection<SootMethod> methods, FastEscapeAnalysis escape,
+                                          SideEffectAnalysis sideEffect) {
+        LibrarySummaries library = new LibrarySummaries();
+        library.jdkVersion = jdkVersion;
+        for (SootMethod method : methods) {
+            int id = method.getNumber();
+            if (!method.isConcrete() || id >= escape.escapedVars.length || escape.escapedVars[id] == null) {
+                continue;
+            }
+            Map<Local, Integer> local2index = indexIdentityLocals(method);
+            LibrarySummary summary = new LibrarySummary();
+            summary.escaped = AnalysisSnapshot.encodeLocals(escape.escapedVars[id], local2index);
+            summary.realEscaped = AnalysisSnapshot.encodeLocals(escape.realEscapedVars[id], local2index);
+            summary.returned = AnalysisSnapshot.encodeLocals(escape.returnedVars[id], local2index);
+            summary.escapedMethod = escape.escapedMethod[id];
+            summary.freshMethod = escape.freshMethod[id];
+            if (sideEffect != null && sideEffect.getModHeapLocs(method) != null) {
+                summary.hasSideEffect = true;
+                summary.mod = AnalysisSnapshot.encodeAccessPaths(
+                        rootedAtIdentityLocals(sideEffect.getModHeapLocs(method), local2index), local2index);
+                summary.use = AnalysisSnapshot.encodeAccessPaths(
+                        rootedAtIdentityLocals(sideEffect.getUseHeapLocs(method), local2index), local2index);
+                summary.unskippable = sideEffect.hasUnskippableSideEffect(method);
+            }
+            library.summaries.put(method.getSignature(), summary);
+        }
+        return library;
+    }
+
+    /** Position 0 is the this local, position i + 1 is parameter i. */
+    private static Map<Local, Integer> indexIdentityLocals(SootMethod method) {
+        Local[] locals = getIdentityLocals(method);
+        Map<Local, Integer> local2index = new HashMap<>();
+        for (int i = 0; i < locals.length; i++) {
+            if (locals[i] != null) {
+                local2index.put(locals[i], i);
+            }
+        }
+        return local2index;
+    }
+
+    private static Local[] getIdentityLocals(SootMethod method) {
+        Body body = method.retrieveActiveBody();
+        Local[] locals = new Local[method.getParameterCount() + 1];
+        if (!method.isStatic()) {
+            locals[0] = body.getThisLocal();
+        }
+        for (int i = 0; i < method.getParameterCount(); i++) {
+            locals[i + 1] = body.getParameterLocal(i);
+        }
+        return locals;
+    }
+
+    /** The callers only map the access paths rooted at the this local and the parameter locals. */
+    private static Collection<AccessPath> rootedAtIdentityLocals(Collection<AccessPath> aps,
+                                                                 Map<Local, Integer> local2index) {
+        List<AccessPath> rooted = new ArrayList<>();
+        for (AccessPath ap : aps) {
+            Location root = ap.getRoot();
+            if (root instanceof GlobalLocation || (root instanceof StackLocation
+                    && local2index.containsKey(((StackLocation) root).getValue()))) {
+                rooted.add(ap);
+            }
+        }
+        return rooted;
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(jdkVersion);
+            out.writeInt(summaries.size());
+            for (Map.Entry<String, LibrarySummary> entry : new TreeMap<>(summaries).entrySet()) {
+                LibrarySummary summary = entry.getValue();
+                out.writeUTF(entry.getKey());
+                AnalysisSnapshot.writeInts(out, summary.escaped);
+                AnalysisSnapshot.writeInts(out, summary.realEscaped);
+                AnalysisSnapshot.writeInts(out, summary.returned);
+                out.writeBoolean(summary.escapedMethod);
+                out.writeBoolean(summary.freshMethod);
+                out.writeBoolean(summary.hasSideEffect);
+                if (summary.hasSideEffect) {
+                    AnalysisSnapshot.writeAccessPaths(out, summary.mod);
+                    AnalysisSnapshot.writeAccessPaths(out, summary.use);
+                    out.writeBoolean(summary.unskippable);
+                }
+            }
+        }
+        LOGGER.info("[LibrarySummary] {} methods of JDK {} saved to {}", summaries.size(), jdkVersion, file);
+    }
+
+    /**
+     * Load the summaries shipped for the JDK version.
+     * @return null if no summaries are shipped for the version
+     */
+    public static LibrarySummaries loadResource(String jdkVersion) throws IOException {
+        String name = String.format(RESOURCE, jdkVersion);
+        InputStream in = LibrarySummaries.class.getResourceAsStream(name);
+        if (in == null) {
+            LOGGER.warn("[LibrarySummary] no summaries of JDK {} are found", jdkVersion);
+            return null;
+        }
+        try {
+            return read(in, name, jdkVersion);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return null if the file does not exist, or it is not generated for the JDK version
+     */
+    public static LibrarySummaries read(File file, String jdkVersion) throws IOException {
+        if (!file.isFile()) {
+            LOGGER.warn("[LibrarySummary] no summaries are found at {}", file);
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in, file.getPath(), jdkVersion);
+        }
+    }
+
+    private static LibrarySummaries read(InputStream input, String name, String jdkVersion) throws IOException {
+        Date startTime = new Date();
+        LibrarySummaries library = new LibrarySummaries();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(input)));
+        if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+            LOGGER.warn("[LibrarySummary] unknown summary format of {}", name);
+            return null;
+        }
+        library.jdkVersion = in.readUTF();
+        if (!library.jdkVersion.equals(jdkVersion)) {
+            LOGGER.warn("[LibrarySummary] summaries of {} are generated for JDK {}, not {}", name,
+                    library.jdkVersion, jdkVersion);
+            return null;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String signature = in.readUTF();
+            LibrarySummary summary = new LibrarySummary();
+            summary.escaped = AnalysisSnapshot.readInts(in);
+            summary.realEscaped = AnalysisSnapshot.readInts(in);
+            summary.returned = AnalysisSnapshot.readInts(in);
+            summary.escapedMethod = in.readBoolean();
+            summary.freshMethod = in.readBoolean();
+            summary.hasSideEffect = in.readBoolean();
+            if (summary.hasSideEffect) {
+                summary.mod = AnalysisSnapshot.readAccessPaths(in);
+                summary.use = AnalysisSnapshot.readAccessPaths(in);
+                summary.unskippable = in.readBoolean();
+            }
+            library.summaries.put(signature, summary);
+        }
+        Date endTime = new Date();
+        LOGGER.info("[LibrarySummary] {} methods of JDK {} read from {} in {}", library.summaries.size(),
+                library.jdkVersion, name, Utils.getTimeConsumed(startTime, endTime));
+        return library;
+    }
+
+    /**
+     * The summarized methods reachable in the call graph. Unreached methods are not resolved, so their bodies are
+     * not retrieved when the summaries are applied.
+     * A summary is only applied if all methods transitively called by the method in the call graph are summarized.
+     * Otherwise the method calls back into a method analyzed from its body, e.g., <code>HashMap.put</code> calling
+     * <code>hashCode</code> of an application class, or <code>Iterable.forEach</code> calling
+     * <code>Consumer.accept</code>, whose effects the summary does not reflect, so the method is analyzed as well.
+     */
+    private Map<SootMethod, LibrarySummary> resolve() {
+        Map<SootMethod, LibrarySummary> methods = resolved;
+        if (methods != null) {
+            return methods;
+        }
+        synchronized (this) {
+            if (resolved == null) {
+                methods = new HashMap<>();
+                Set<SootMethod> sideEffectMethods = new HashSet<>();
+                for (MethodOrMethodContext reachable : Cache.v().getReverseTopologicalOrder()) {
+                    SootMethod method = reachable.method();
+                    LibrarySummary summary = method.isConcrete() ? summaries.get(method.getSignature()) : null;
+                    if (summary != null) {
+                        methods.put(method, summary);
+                        if (summary.hasSideEffect) {
+                            sideEffectMethods.add(method);
+                        }
+                    }
+                }
+                int summarized = methods.size();
+                DirectedCallGraph dcg = SootUtils.getDirectedCallGraph(Scene.v().getCallGraph(),
+                        Scene.v().getEntryPoints());
+                removeCallersOfUnsummarized(methods.keySet(), dcg);
+                removeCallersOfUnsummarized(sideEffectMethods, dcg);
+                LOGGER.info("[LibrarySummary] {} of {} summarized methods are reachable, {} of them are analyzed "
+                        + "since they call back into analyzed methods", summarized, summaries.size(),
+                        summarized - methods.size());
+                sideEffectResolved = sideEffectMethods;
+                resolved = methods;
+            }
+            return resolved;
+        }
+    }
+
+    /**
+     * Remove the methods calling a concrete method out of <code>summarized</code>, directly or transitively,
+     * by walking the callers backwards from the unsummarized methods.
+     */
+    private static void removeCallersOfUnsummarized(Set<SootMethod> summarized, DirectedCallGraph dcg) {
+        Deque<MethodOrMethodContext> workList = new ArrayDeque<>();
+        Set<MethodOrMethodContext> visited = new HashSet<>();
+        for (MethodOrMethodContext node : dcg) {
+            if (node.method().isConcrete() && !summarized.contains(node.method())) {
+                visited.add(node);
+                workList.add(node);
+            }
+        }
+        while (!workList.isEmpty()) {
+            MethodOrMethodContext node = workList.removeFirst();
+            for (MethodOrMethodContext caller : dcg.getPredsOf(node)) {
+                if (visited.add(caller)) {
+                    summarized.remove(caller.method());
+                    workList.addLast(caller);
+                }
+            }
+        }
+    }
+
+    /** Whether the escape/fresh results of the method are summarized. */
+    public boolean isSummarized(SootMethod method) {
+        return resolve().containsKey(method);
+    }
+
+    /** Whether the mod/use sets of the method are summarized. */
+    public boolean hasSideEffectSummary(SootMethod method) {
+        resolve();
+        return sideEffectResolved.contains(method);
+    }
+
+    /** Fill the escape/fresh results of the summarized methods. */
+    void applyEscape(FastEscapeAnalysis escape) {
+        for (Map.Entry<SootMethod, LibrarySummary> entry : resolve().entrySet()) {
+            SootMethod method = entry.getKey();
+            LibrarySummary summary = entry.getValue();
+            Local[] locals = getIdentityLocals(method);
+            int id = method.getNumber();
+            escape.escapedVars[id] = AnalysisSnapshot.decodeLocals(summary.escaped, locals);
+            escape.realEscapedVars[id] = AnalysisSnapshot.decodeLocals(summary.realEscaped, locals);
+            escape.returnedVars[id] = AnalysisSnapshot.decodeLocals(summary.returned, locals);
+            // the this local and formal parameters are non-fresh inherently, other locals are not recorded
+            Set<Local> nonFresh = new HashSet<>();
+            for (Local local : locals) {
+                if (local != null) {
+                    nonFresh.add(local);
+                }
+            }
+            escape.nonFreshVars[id] = nonFresh;
+            escape.escapedMethod[id] = summary.escapedMethod;
+            escape.freshMethod[id] = summary.freshMethod;
+        }
+    }
+
+    /** Fill the mod/use summaries of the summarized methods, if they are recorded. */
+    void applySideEffect(Set<AccessPath>[] method2ModHeaps, Set<AccessPath>[] method2UseHeaps,
+                         Boolean[] method2Unskippable) {
+        Map<SootMethod, LibrarySummary> methods = resolve();
+        for (SootMethod method : sideEffectResolved) {
+            LibrarySummary summary = methods.get(method);
+            Local[] locals = getIdentityLocals(method);
+            int id = method.getNumber();
+            method2ModHeaps[id] = AnalysisSnapshot.decodeAccessPaths(summary.mod, locals);
+            method2UseHeaps[id] = AnalysisSnapshot.decodeAccessPaths(summary.use, locals);
+            method2Unskippable[id] = summary.unskippable;
+        }
+    }
+
+    private static class LibrarySummary {
+        int[] escaped;
+        int[] realEscaped;
+        int[] returned;
+        boolean escapedMethod;
+        boolean freshMethod;
+        boolean hasSideEffect;
+        EncodedAccessPath[] mod;
+        EncodedAccessPath[] use;
+        boolean unskippable;
+    }
+}
@@ -0,0 +1,119 @@
+package plover.sootex.sideeffect;
+
+import plover.utils.Constants;
+import plover.utils.SootExecutorUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.jimple.toolkits.callgraph.CHATransformer;
+import soot.jimple.toolkits.callgraph.CallGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Generate the {@link LibrarySummaries} of a JDK.
+ * All concrete methods of the classes in the given packages are entry points of a CHA call graph, on which the
+ * escape and side-effect analyses run as usual, and the results of the methods in the packages are saved.
+ * <p>
+ * Usage: LibrarySummaryGenerator JDK_CLASSPATH JDK_VERSION OUTPUT [PACKAGE_PREFIX ...], e.g.,
+ * <code>$JAVA_HOME/jre/lib/rt.jar 1.8 core/src/main/resources/library-summaries/jdk-1.8.gz java.lang. java.util.</code>
+ * The packages are "java." by default. The classpath entries must be jars or directories of class files.
+ */
+public class LibrarySummaryGenerator {
+    public static final Logger LOGGER = LoggerFactory.getLogger(LibrarySummaryGenerator.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: LibrarySummaryGenerator JDK_CLASSPATH JDK_VERSION OUTPUT [PACKAGE_PREFIX ...]");
+            System.exit(1);
+        }
+        String classpath = args[0];
+        String jdkVersion = args[1];
+        File output = new File(args[2]);
+        List<String> prefixes = args.length > 3 ? Arrays.asList(args).subList(3, args.length)
+                : Collections.singletonList("java.");
+
+        SootExecutorUtil.setDefaultSootOptions(classpath);
+        List<SootClass> classes = new ArrayList<>();
+        for (String className : listClasses(classpath, prefixes)) {
+            SootClass sootClass = Scene.v().loadClassAndSupport(className);
+            sootClass.setApplicationClass();
+            classes.add(sootClass);
+        }
+        Scene.v().loadNecessaryClasses();
+
+        List<SootMethod> methods = new ArrayList<>();
+        for (SootClass sootClass : classes) {
+            for (SootMethod method : sootClass.getMethods()) {
+                if (method.isConcrete()) {
+                    methods.add(method);
+                }
+            }
+        }
+        LOGGER.info("[LibrarySummary] {} methods of {} classes in {}", methods.size(), classes.size(), prefixes);
+        Scene.v().setEntryPoints(new ArrayList<SootMethod>(methods));
+        CHATransformer.v().transform();
+        CallGraph cg = Scene.v().getCallGraph();
+
+        MustAliasIdentityLocalsQuery mustAliasQuery = new MustAliasIdentityLocalsQuery();
+        mustAliasQuery.build();
+        FastEscapeAnalysis escape = new FastEscapeAnalysis(cg, mustAliasQuery);
+        escape.build();
+        SideEffectAnalysis sideEffect = new SideEffectAnalysis(null, mustAliasQuery, escape, Scene.v().getEntryPoints(),
+                Constants.CUSTOMIZED_IO_METHOD);
+        sideEffect.build();
+
+        LibrarySummaries.create(jdkVersion, methods, escape, sideEffect).save(output);
+    }
+
+    /** Names of the classes in the packages, the first one is taken if a class appears more than once. */
+    private static Set<String> listClasses(String classpath, List<String> prefixes) throws IOException {
+        Set<String> classNames = new TreeSet<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            File file = new File(entry);
+            if (file.isDirectory()) {
+                listClassesInDirectory(file, "", prefixes, classNames);
+            } else if (file.isFile()) {
+                try (ZipFile zip = new ZipFile(file)) {
+                    Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        addClass(zipEntries.nextElement().getName(), prefixes, classNames);
+                    }
+                }
+            }
+        }
+        return classNames;
+    }
+
+    private static void listClassesInDirectory(File dir, String prefix, List<String> prefixes, Set<String> classNames) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                listClassesInDirectory(child, path + "/", prefixes, classNames);
+            } else {
+                addClass(path, prefixes, classNames);
+            }
+        }
+    }
+
+    private static void addClass(String path, List<String> prefixes, Set<String> classNames) {
+        if (!path.endsWith(".class")) {
+            return;
+        }
+        String className = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+        for (String prefix : prefixes) {
+            if (className.startsWith(prefix)) {
+                classNames.add(className);
+                return;
+            }
+        }
+    }
+}
@@ -3,8 +3,10 @@ package plover.sootex.sideeffect;
 import java.util.*;
 
 import com.google.common.collect.Ordering;
+import plover.soot.BoundedCache;
 import plover.soot.Cache;
 import plover.soot.callgraph.Callees;
+import plover.soot.graph.ComponentScheduler;
 import plover.sootex.location.*;
 import plover.sootex.ptsto.IPtsToQuery;
 import plover.soot.SootUtils;
@@ -26,6 +28,7 @@ import soot.toolkits.graph.PseudoTopologicalOrderer;
 @SuppressWarnings({"rawtypes","unchecked"})
 public class SideEffectAnalysis implements ISideEffectAnalysis{
     public static final Logger LOGGER = LoggerFactory.getLogger(SideEffectAnalysis.class);
+    /** rounds of the inter-procedural worklist of a component, access paths are not k-limited and may grow forever */
     public static int MAX_ITERATION = 100;
 
     private Collection entries;
@@ -34,10 +37,20 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
     private ILocalityQuery localityQuery;
     private MustAliasIdentityLocalsQuery mustAliasQuery;
     private List<String> ioMethods;
+    private int threads = 1;
+    /** mod/use sets of library methods, the summarized methods are not analyzed */
+    private LibrarySummaries librarySummaries;
     
     private Set<AccessPath>[] method2ModHeaps;
     private Set<AccessPath>[] method2UseHeaps;
     private Boolean[] method2Unskippable;
+    /** components with at least this many methods log the propagations of their inter-procedural analysis */
+    private static final int LARGE_COMPONENT_SIZE = 100;
+    /** budget of the mapping cache, in mapped access paths */
+    private static final long MAPPING_CACHE_BUDGET = 1 << 20;
+    /** access paths of callee summaries mapped to call sites, by call site, callee and summary */
+    private final BoundedCache<MappingKey, AccessPathSet> mappingCache = new BoundedCache<>("Mapping",
+            MAPPING_CACHE_BUDGET, mapped -> mapped.size() + 1);
 
     public static List<String> knownSkippableMethods = new ArrayList<>(
             Arrays.asList(
@@ -75,6 +88,32 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
         this.ioMethods = ioMethods;
     }
 
+    /**
+     * Restore the results saved in an {@link AnalysisSnapshot}, {@link #build()} should not be invoked.
+     */
+    SideEffectAnalysis(Set<AccessPath>[] method2ModHeaps, Set<AccessPath>[] method2UseHeaps,
+                       Boolean[] method2Unskippable) {
+        this.method2ModHeaps = method2ModHeaps;
+        this.method2UseHeaps = method2UseHeaps;
+        this.method2Unskippable = method2Unskippable;
+    }
+
+
+    /**
+     * Number of threads analyzing the components whose callees are done, the components are analyzed one by one
+     * in the bottom-up order if it is less than 2.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setLibrarySummaries(LibrarySummaries librarySummaries) {
+        this.librarySummaries = librarySummaries;
+    }
+
+    private boolean isSummarized(SootMethod method) {
+        return librarySummaries != null && librarySummaries.hasSideEffectSummary(method);
+    }
 
     @Override
     public Collection<AccessPath> getModHeapLocs(SootMethod method){
@@ -127,7 +166,16 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
 //    	return  collectObjects(locations);
 //    }
     
-	public void build(){    	
+	public void build(){
+        build(null, null);
+    }
+
+    /**
+     * Incremental build, the summaries of methods not in <code>affected</code> are restored from <code>previous</code>.
+     * @param affected methods need to be re-analyzed, see {@link AnalysisSnapshot#findAffectedMethods}
+     * @param previous results of the previous run, analyze all methods if it is null
+     */
+    public void build(Set<SootMethod> affected, AnalysisSnapshot previous){
         Date startBuild = new Date();  
         
         int methodNum = SootUtils.getMethodCount();
@@ -144,7 +192,7 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
    		// 2. topological sort
         LOGGER.info("[SideEffect] topological sort methods...");
    		PseudoTopologicalOrderer pto = new PseudoTopologicalOrderer();
-        List componentsOrder = pto.newList(componentCallGraph,true);
+        List<List<SootMethod>> componentsOrder = pto.newList(componentCallGraph,true);
         List methodOrder = Cache.v().getReverseTopologicalOrder();
 
 
@@ -176,36 +224,66 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
         if (localityQuery == null) {
             LOGGER.info("[SideEffect] locality analysis...");
             FastEscapeAnalysis escape = new FastEscapeAnalysis(cg, mustAliasQuery);
+            escape.setThreads(threads);
+            escape.setLibrarySummaries(librarySummaries);
             escape.build();
             localityQuery = escape;
         }
 
+        // 4.1 restore the components not affected by changes
+        Set<Collection> reusedComponents = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (previous != null) {
+            for (Iterator it=componentsOrder.iterator();it.hasNext();){
+                Collection node = (Collection) it.next();
+                if (isReusable(node, affected, previous)) {
+                    reusedComponents.add(node);
+                }
+            }
+            LOGGER.info("[SideEffect] {} of {} components restored from previous results",
+                    reusedComponents.size(), componentsOrder.size());
+        }
+
+        // 4.2 summarized library methods are leaves
+        if (librarySummaries != null) {
+            librarySummaries.applySideEffect(method2ModHeaps, method2UseHeaps, method2Unskippable);
+        }
+
         // 5. bottom-up phase to find unskippable side-effect
+        // a component is analyzed once the components it calls are done, ready components run in parallel
+        ComponentScheduler<List<SootMethod>> scheduler = new ComponentScheduler<>(componentCallGraph, componentsOrder,
+                threads);
         LOGGER.info("[SideEffect] bottom-up phase to find unskippable side-effect...");
-        for (Iterator it=componentsOrder.iterator();it.hasNext();){
-        	Collection node = (Collection) it.next();
-        	findUnskippableSideEffectsForComponent(node);
-        }
-        	
+        scheduler.runBottomUp(node -> {
+            if (!reusedComponents.contains(node)) {
+                findUnskippableSideEffectsForComponent(node);
+            }
+        });
+
         // 6. bottom-up phase to find read/write on this local and parameter locals
         LOGGER.info("[SideEffect] intra-procedure analysis to find read/write on identity locals...");
         // 6.1 intra-procedural analysis for each method (no need to care about component)
         LOGGER.info("[SideEffect] bottom-up phase to find read/write on identity locals...");
-        for (Iterator it=componentsOrder.iterator();it.hasNext();){
-            Collection node = (Collection) it.next();
-            for (Object method : node) {
-                SootMethod sootMethod = (SootMethod) method;
-                findIntraThisParaSideEffectsForMethod(sootMethod);
+        scheduler.runAll(node -> {
+            if (!reusedComponents.contains(node)) {
+                for (SootMethod sootMethod : node) {
+                    findIntraThisParaSideEffectsForMethod(sootMethod);
+                }
             }
-        }
+        });
         // 6.2 inter-procedural analysis for each component
         LOGGER.info("[SideEffect] inter-procedure analysis to find read/write on identity locals...");
-        for (Iterator it=componentsOrder.iterator();it.hasNext();){
-        	List node = new ArrayList((Collection) it.next());
-        	node.sort(Ordering.explicit(methodOrder));
-        	findInterThisParaSideEffectsForComponent(node);
-        }
-        
+        Ordering<Object> methodOrdering = Ordering.explicit(methodOrder);
+        scheduler.runBottomUp(component -> {
+            if (!reusedComponents.contains(component)) {
+                List node = new ArrayList(component);
+                node.sort(methodOrdering);
+                findInterThisParaSideEffectsForComponent(node);
+                internSummaries(node);
+            }
+        });
+        LOGGER.info("[SideEffect] {} distinct mod/use sets", AccessPathSet.getPoolSize());
+        LOGGER.info("[SideEffect] {}", mappingCache);
+
 		// free memories
 		entries = null;
 		ptsto = null;
@@ -221,6 +299,24 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
         LOGGER.info("[SideEffect] complete in  {}", Utils.getTimeConsumed(startBuild,endBuild));
     }
 
+    /**
+     * A component can be restored if none of its methods is affected, and the summaries of all methods are recorded.
+     */
+    private boolean isReusable(Collection methods, Set<SootMethod> affected, AnalysisSnapshot previous) {
+        for (Object method : methods) {
+            SootMethod sootMethod = (SootMethod) method;
+            if (affected.contains(sootMethod) || !sootMethod.isConcrete()) {
+                return false;
+            }
+        }
+        for (Object method : methods) {
+            if (!previous.restoreSideEffect((SootMethod) method, method2ModHeaps, method2UseHeaps, method2Unskippable)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * find unskippable side-effects for component
      * There are only two status for unskippable side-effects of methods in one component
@@ -230,18 +326,16 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
     private void findUnskippableSideEffectsForComponent(Collection methods){
         boolean hasUnskippableEffects = false;
         for (Object method : methods) {
-            if (findUnskippableSideEffectsForMethod((SootMethod) method)) {
+            SootMethod sootMethod = (SootMethod) method;
+            if (isSummarized(sootMethod) ? method2Unskippable[sootMethod.getNumber()]
+                    : findUnskippableSideEffectsForMethod(sootMethod)) {
                 hasUnskippableEffects = true;
                 break;
             }
         }
-        if (hasUnskippableEffects) {
-            for (Object method : methods) {
-                method2Unskippable[((SootMethod) method).getNumber()] = true;
-            }
-        } else {
-            for (Object method : methods) {
-                method2Unskippable[((SootMethod) method).getNumber()] = false;
+        for (Object method : methods) {
+            if (!isSummarized((SootMethod) method)) {
+                method2Unskippable[((SootMethod) method).getNumber()] = hasUnskippableEffects;
             }
         }
     }
@@ -319,7 +413,7 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
     }
 
     private void findIntraThisParaSideEffectsForMethod(SootMethod method) {
-        if (!method.isConcrete())
+        if (!method.isConcrete() || isSummarized(method))
             return;
 
         LOGGER.trace("[SideEffect] intra-procedure analysis for {}", method.getSignature());
@@ -416,61 +510,66 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
 
     }
 
+    /**
+     * A call site to a callee in the same component, resolved once per component.
+     */
+    private static class ComponentCallSite {
+        final SootMethod caller;
+        final Stmt stmt;
+
+        ComponentCallSite(SootMethod caller, Stmt stmt) {
+            this.caller = caller;
+            this.stmt = stmt;
+        }
+    }
+
     /**
      * method in methods should be reverse topologically ordered.
+     * Callees out of the component are mapped once. Callees in the component are solved with a worklist of deltas:
+     * when the mod/use set of a method grows, only the new access paths are mapped to its call sites in the component,
+     * and only the callers whose sets grow are processed again.
+     * Access paths are not k-limited, a recursive component may append accessors to the mapped access paths in every
+     * round and never reach a fixed point, so the worklist stops after {@link #MAX_ITERATION} rounds.
      * @param methods
      */
     private void findInterThisParaSideEffectsForComponent(List methods){
     	// inter-procedural analysis for the callee which IS NOT in this component
         LOGGER.trace("[SideEffect] inter-procedure analysis for component {} size {}", methods.get(0), methods.size());
+        // summarized methods are leaves, their callers map their summaries like callees out of the component
+        Set<SootMethod> members = new HashSet<>();
+        for (Object method : methods) {
+            if (!isSummarized((SootMethod) method)) {
+                members.add((SootMethod) method);
+            }
+        }
+        // call sites in this component, indexed by the callee
+        Map<SootMethod, List<ComponentCallSite>> callee2sites = new HashMap<>();
  		for (Object method : methods) {
             SootMethod sootMethod = (SootMethod) method;
-            if (!sootMethod.isConcrete()) {
+            if (!sootMethod.isConcrete() || !members.contains(sootMethod)) {
                 continue;
             }
             Set<AccessPath> mod = new HashSet();
             Set<AccessPath> use = new HashSet();
-            MustAliasIdentityLocalsAnalysis mustAliasAnalysis = mustAliasQuery.query(sootMethod);
-            Set<Local> localityLocalVars = localityQuery.getLocalityLocals(sootMethod);
-            Set<Local> realEscapeLocalVars = localityQuery.getRealEscapedLocals(sootMethod);
             Body body = sootMethod.retrieveActiveBody();
             for (Unit stmt : body.getUnits()) {
                 if (stmt instanceof Stmt && ((Stmt) stmt).containsInvokeExpr()) {
                     Callees callees = new Callees(cg, stmt);
                     for (SootMethod callee : callees.explicits()) {
-                        // the callee is not in this component
-                        if (callee.isConcrete() && !methods.contains(callee)) {
-                            Set<AccessPath> modHeap = method2ModHeaps[callee.getNumber()];
-                            Set<AccessPath> transitModHeap = getMappingAccessPath((Stmt) stmt, callee, modHeap);
-                            LOGGER.trace("modHeap {} transitModHeap {}", modHeap, transitModHeap);
-
-                            for (AccessPath suffix : transitModHeap) {
-                                if (!(suffix.getRoot() instanceof StackLocation)) {
-                                    continue;
-                                }
-                                Value base = ((StackLocation) suffix.getRoot()).getValue();
-                                if (!localityLocalVars.contains(base) && !realEscapeLocalVars.contains(base)) {
-                                    Set<AccessPath> aliasLocals = mustAliasAnalysis.getMustAliasToIdentityLocals((Local) base, (Stmt) stmt);
-                                    for (AccessPath prefix : aliasLocals) {
-                                        mod.add(prefix.appendAccessors(Arrays.asList(suffix.getAccessors())));
-                                    }
-                                }
-                            }
-                            Set<AccessPath> useHeap = method2UseHeaps[callee.getNumber()];
-                            Set<AccessPath> transitUseHeap = getMappingAccessPath((Stmt) stmt, callee, useHeap);
-                            for (AccessPath suffix : transitUseHeap) {
-                                if (!(suffix.getRoot() instanceof StackLocation)) {
-                                    continue;
-                                }
-                                Value base = ((StackLocation) suffix.getRoot()).getValue();
-                                if (!localityLocalVars.contains(base) && !realEscapeLocalVars.contains(base)) {
-                                    Set<AccessPath> aliasLocals = mustAliasAnalysis.getMustAliasToIdentityLocals((Local) base, (Stmt) stmt);
-                                    for (AccessPath prefix : aliasLocals) {
-                                        use.add(prefix.appendAccessors(Arrays.asList(suffix.getAccessors())));
-                                    }
-                                }
-                            }
+                        if (!callee.isConcrete()) {
+                            continue;
                         }
+                        if (members.contains(callee)) {
+                            // the callee is in this component, solved by the worklist below
+                            callee2sites.computeIfAbsent(callee, k -> new ArrayList<>())
+                                    .add(new ComponentCallSite(sootMethod, (Stmt) stmt));
+                            continue;
+                        }
+                        // the callee is not in this component
+                        Set<AccessPath> modHeap = method2ModHeaps[callee.getNumber()];
+                        mapCalleeAccessPaths(sootMethod, (Stmt) stmt, callee, modHeap, mod);
+                        Set<AccessPath> useHeap = method2UseHeaps[callee.getNumber()];
+                        mapCalleeAccessPaths(sootMethod, (Stmt) stmt, callee, useHeap, use);
                     }
                 }
             }
@@ -490,108 +589,152 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
             }
         }
 
-        // inter-procedural analysis for the callee which IS in this component
-        // and we need to run multiple times until reach fixed point
+        if (callee2sites.isEmpty()) {
+            return;
+        }
 
-        boolean changed = true;
+        // inter-procedural analysis for the callee which IS in this component,
+        // at first every access path of a callee is new to its callers
+        Map<SootMethod, Set<AccessPath>> modDeltas = new HashMap<>();
+        Map<SootMethod, Set<AccessPath>> useDeltas = new HashMap<>();
+        Deque<SootMethod> workList = new ArrayDeque<>();
+        Set<SootMethod> queued = new HashSet<>();
+        for (Object method : methods) {
+            SootMethod sootMethod = (SootMethod) method;
+            if (callee2sites.containsKey(sootMethod)) {
+                modDeltas.put(sootMethod, new HashSet<>(method2ModHeaps[sootMethod.getNumber()]));
+                useDeltas.put(sootMethod, new HashSet<>(method2UseHeaps[sootMethod.getNumber()]));
+                workList.add(sootMethod);
+                queued.add(sootMethod);
+            }
+        }
 
-        int startIndex = 0;
-        int size = methods.size();
+        int propagations = 0;
         int iteration = 0;
- 		while (changed) {
- 		    if (iteration > MAX_ITERATION) {
- 		        LOGGER.warn("[SideEffect] inter-procedure analysis for component {} size: {} iteration: {} too many iterations ",
-                        methods.get(0), methods.size(), iteration);
- 		        break;
-            }
- 		    iteration++;
- 		    changed = false;
-            LOGGER.trace("[SideEffect] inter-procedure analysis for component {} iteration: {}", methods.get(0), iteration);
-            for (int i = 0; i < size; i++) {
-                int index = (startIndex + i) % size;
-                SootMethod sootMethod = (SootMethod) methods.get(index);
-                if (!sootMethod.isConcrete()) {
-                    continue;
+        // the methods queued when a round starts are processed in that round
+        int roundSize = 0;
+        while (!workList.isEmpty()) {
+            if (roundSize == 0) {
+                if (iteration >= MAX_ITERATION) {
+                    LOGGER.warn("[SideEffect] inter-procedure analysis for component {} size: {} iteration: {} too many iterations ",
+                            methods.get(0), methods.size(), iteration);
+                    break;
                 }
-                Set<AccessPath> mod = new HashSet();
-                Set<AccessPath> use = new HashSet();
-                MustAliasIdentityLocalsAnalysis mustAliasAnalysis = mustAliasQuery.query(sootMethod);;
-                Set<Local> localityLocalVars = localityQuery.getLocalityLocals(sootMethod);
-                Set<Local> realEscapeLocalVars = localityQuery.getRealEscapedLocals(sootMethod);
-                LOGGER.trace("localityLocalVars {} realEscapeLocalVars {}", localityLocalVars, realEscapeLocalVars);
-
-                Body body = sootMethod.retrieveActiveBody();
-                for (Unit stmt : body.getUnits()) {
-                    if (stmt instanceof Stmt && ((Stmt) stmt).containsInvokeExpr()) {
-                        Callees callees = new Callees(cg, stmt);
-                        for (SootMethod callee : callees.explicits()) {
-                            // the callee is in this component
-                            if (callee.isConcrete() && methods.contains(callee)) {
-                                Set<AccessPath> modHeap = method2ModHeaps[callee.getNumber()];
-                                Set<AccessPath> transitModHeap = getMappingAccessPath((Stmt) stmt, callee, modHeap);
-                                LOGGER.trace("modHeap {} transitModHeap {}", modHeap, transitModHeap);
-
-                                for (AccessPath suffix : transitModHeap) {
-
-                                    LOGGER.trace("!(suffix.getRoot() instanceof StackLocation) {}", !(suffix.getRoot() instanceof StackLocation));
-
-                                    if (!(suffix.getRoot() instanceof StackLocation)) {
-                                        continue;
-                                    }
-                                    Value base = ((StackLocation) suffix.getRoot()).getValue();
-
-                                    LOGGER.trace("!localityLocalVars.contains(base) {} !realEscapeLocalVars.contains(base) {}",
-                                                !localityLocalVars.contains(base), !realEscapeLocalVars.contains(base));
-
-                                    if (!localityLocalVars.contains(base) && !realEscapeLocalVars.contains(base)) {
-                                        Set<AccessPath> aliasLocals = mustAliasAnalysis.getMustAliasToIdentityLocals((Local) base, (Stmt) stmt);
-
-                                        LOGGER.trace("aliasLocals {}", aliasLocals);
-
-                                        for (AccessPath prefix : aliasLocals) {
-                                            mod.add(prefix.appendAccessors(Arrays.asList(suffix.getAccessors())));
-                                        }
-                                    }
-                                }
-                                Set<AccessPath> useHeap = method2UseHeaps[callee.getNumber()];
-                                Set<AccessPath> transitUseHeap = getMappingAccessPath((Stmt) stmt, callee, useHeap);
-                                for (AccessPath suffix : transitUseHeap) {
-                                    if (!(suffix.getRoot() instanceof StackLocation)) {
-                                        continue;
-                                    }
-                                    Value base = ((StackLocation) suffix.getRoot()).getValue();
-                                    if (!localityLocalVars.contains(base) && !realEscapeLocalVars.contains(base)) {
-                                        Set<AccessPath> aliasLocals = mustAliasAnalysis.getMustAliasToIdentityLocals((Local) base, (Stmt) stmt);
-                                        for (AccessPath prefix : aliasLocals) {
-                                            use.add(prefix.appendAccessors(Arrays.asList(suffix.getAccessors())));
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
+                iteration++;
+                roundSize = workList.size();
+            }
+            roundSize--;
+            SootMethod callee = workList.removeFirst();
+            queued.remove(callee);
+            Set<AccessPath> modDelta = modDeltas.remove(callee);
+            Set<AccessPath> useDelta = useDeltas.remove(callee);
+            propagations++;
+            for (ComponentCallSite site : callee2sites.get(callee)) {
+                SootMethod caller = site.caller;
+                Set<AccessPath> mod = new HashSet<>();
+                Set<AccessPath> use = new HashSet<>();
+                mapCalleeAccessPaths(caller, site.stmt, callee, modDelta, mod);
+                mapCalleeAccessPaths(caller, site.stmt, callee, useDelta, use);
+                // callers not called in the component have no one to propagate to
+                boolean propagate = callee2sites.containsKey(caller);
+                boolean changed = addDelta(method2ModHeaps[caller.getNumber()], mod,
+                        propagate ? modDeltas.computeIfAbsent(caller, k -> new HashSet<>()) : null);
+                changed |= addDelta(method2UseHeaps[caller.getNumber()], use,
+                        propagate ? useDeltas.computeIfAbsent(caller, k -> new HashSet<>()) : null);
+                if (changed && propagate && queued.add(caller)) {
+                    workList.addLast(caller);
                 }
-                Set<AccessPath> preModHeaps = method2ModHeaps[sootMethod.getNumber()];
+            }
+        }
+        if (methods.size() >= LARGE_COMPONENT_SIZE) {
+            LOGGER.info("[SideEffect] inter-procedure analysis for component {} size: {} stops after {} iterations, {} propagations",
+                    methods.get(0), methods.size(), iteration, propagations);
+        }
+    }
 
-                LOGGER.trace("preModHeaps {} mod {}", preModHeaps, mod);
+    /**
+     * Replace the mod/use sets of a finished component with the shared immutable sets, the summaries are
+     * only read by the callers from now on.
+     */
+    private void internSummaries(List methods) {
+        for (Object method : methods) {
+            int id = ((SootMethod) method).getNumber();
+            if (method2ModHeaps[id] != null) {
+                method2ModHeaps[id] = AccessPathSet.of(method2ModHeaps[id]);
+            }
+            if (method2UseHeaps[id] != null) {
+                method2UseHeaps[id] = AccessPathSet.of(method2UseHeaps[id]);
+            }
+        }
+    }
 
-                Set<AccessPath> preUseHeaps = method2UseHeaps[sootMethod.getNumber()];
-                if (!preModHeaps.containsAll(mod)) {
-                    // There are some changes in this iteration,
-                    // we need to do another iteration until reaching fixed point
-                    // Should we change the start index for next iteration? I guess not.
-                    changed = true;
-                    preModHeaps.addAll(mod);
+    /**
+     * Add the access paths to the mod/use set of a method, the new ones are added to its delta.
+     * @param delta null if the delta of the method is not needed
+     * @return whether the set grows
+     */
+    private static boolean addDelta(Set<AccessPath> heaps, Set<AccessPath> aps, Set<AccessPath> delta) {
+        boolean changed = false;
+        for (AccessPath ap : aps) {
+            if (heaps.add(ap)) {
+                if (delta != null) {
+                    delta.add(ap);
                 }
-                if (!preUseHeaps.containsAll(use)) {
-                    changed = true;
-                    preUseHeaps.addAll(use);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Map the mod/use access paths of the callee to the identity locals of the caller at the call site,
+     * the results are added to <code>result</code>.
+     */
+    private void mapCalleeAccessPaths(SootMethod caller, Stmt stmt, SootMethod callee, Collection<AccessPath> calleeAps,
+                                      Set<AccessPath> result) {
+        if (calleeAps.isEmpty()) {
+            return;
+        }
+        Set<AccessPath> transitHeap = getMappingAccessPath(stmt, callee, calleeAps);
+        LOGGER.trace("heap {} transitHeap {}", calleeAps, transitHeap);
+        if (transitHeap.isEmpty()) {
+            return;
+        }
+        MustAliasIdentityLocalsAnalysis mustAliasAnalysis = mustAliasQuery.query(caller);
+        Set<Local> localityLocalVars = localityQuery.getLocalityLocals(caller);
+        Set<Local> realEscapeLocalVars = localityQuery.getRealEscapedLocals(caller);
+        for (AccessPath suffix : transitHeap) {
+            if (!(suffix.getRoot() instanceof StackLocation)) {
+                continue;
+            }
+            Value base = ((StackLocation) suffix.getRoot()).getValue();
+            if (!localityLocalVars.contains(base) && !realEscapeLocalVars.contains(base)) {
+                Set<AccessPath> aliasLocals = mustAliasAnalysis.getMustAliasToIdentityLocals((Local) base, stmt);
+                for (AccessPath prefix : aliasLocals) {
+                    result.add(prefix.appendAccessors(suffix.getAccessors()));
                 }
             }
         }
     }
 
+    /**
+     * Map the access paths of the callee summary to the actual parameters and receiver at the call site.
+     * The mapping of an interned summary, i.e., a finished one, is cached, the least recently used mappings are
+     * evicted once they exceed {@link #MAPPING_CACHE_BUDGET} access paths.
+     */
     public Set<AccessPath> getMappingAccessPath(Stmt stmt, SootMethod callee, Collection<AccessPath> calleeAP) {
+        if (!(calleeAP instanceof AccessPathSet)) {
+            return mapAccessPaths(stmt, callee, calleeAP);
+        }
+        MappingKey key = new MappingKey(stmt, callee, (AccessPathSet) calleeAP);
+        AccessPathSet mapped = mappingCache.get(key);
+        if (mapped == null) {
+            mapped = mappingCache.put(key, AccessPathSet.of(mapAccessPaths(stmt, callee, calleeAP)));
+        }
+        return mapped;
+    }
+
+    private Set<AccessPath> mapAccessPaths(Stmt stmt, SootMethod callee, Collection<AccessPath> calleeAP) {
         Set<AccessPath> mappingAp = new HashSet<>();
         callee.retrieveActiveBody();
         Body calleeBody = callee.getActiveBody();
@@ -613,4 +756,32 @@ public class SideEffectAnalysis implements ISideEffectAnalysis{
         }
         return mappingAp;
     }
+
+    /** A call site and an interned callee summary, compared by identity. */
+    private static class MappingKey {
+        final Stmt stmt;
+        final SootMethod callee;
+        final AccessPathSet summary;
+
+        MappingKey(Stmt stmt, SootMethod callee, AccessPathSet summary) {
+            this.stmt = stmt;
+            this.callee = callee;
+            this.summary = summary;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MappingKey)) {
+                return false;
+            }
+            MappingKey that = (MappingKey) o;
+            return stmt == that.stmt && callee == that.callee && summary == that.summary;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(stmt) * 31 + System.identityHashCode(callee)) * 31
+                    + System.identityHashCode(summary);
+        }
+    }
 }
@@ -1,6 +1,9 @@
 package plover.stats;
 
 import org.apache.commons.io.FileUtils;
+import plover.guards.result.OverheadRecord;
+import plover.guards.result.ResultFormat;
+import plover.guards.result.ResultSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,12 +32,10 @@ public class Calc {
         String benchFile = MessageFormat.format(
                 "/home/user/Code/plover/conf/guard-bench/{0}_guard_bench.txt", projectName);
         String ourFile = MessageFormat.format(
-                "/home/user/Code/plover/docs/result/{0}_Data_{1}Control_{2}SideEffect_Raw_Result.txt",
+                "/home/user/Code/plover/docs/result/{0}_Data_{1}Control_{2}SideEffect_Result.jsonl",
                 projectName, useControl?"":"No", useSideEffect?"":"No");
         List<String> benchRawResult = FileUtils.readLines(new File(benchFile));
-        List<String> ourRawResult = FileUtils.readLines(new File(ourFile));
         Map<String, List<String>> benchResult = new HashMap<>();
-        Map<String, List<String>> ourResult = new HashMap<>();
         String methodName;
         String methodPattern;
         String contentPattern;
@@ -60,25 +61,7 @@ public class Calc {
             }
         }
 
-        methodName = "Unknown";
-        methodPattern = "Find overhead at method ";
-        contentPattern = " -> ";
-        for (Iterator<String> it = ourRawResult.iterator(); it.hasNext();) {
-            String line = it.next();
-            if (line.contains(methodPattern)) {
-                line = line.substring(line.indexOf(methodPattern) + methodPattern.length());
-                methodName = line.substring(0, line.lastIndexOf(":"));
-                if (!ourResult.containsKey(methodName)) {
-                    ourResult.put(methodName, new ArrayList<>());
-                }
-            } else if (line.contains(contentPattern)) {
-                String unit = line.substring(line.indexOf(contentPattern) + contentPattern.length());
-                if (unit.contains(" with ID")) {
-                    unit = unit.substring(0, unit.lastIndexOf(" with ID"));
-                }
-                ourResult.get(methodName).add(unit.replaceAll("tmp\\$[0-9]+", "tmp"));
-            }
-        }
+        Map<String, List<String>> ourResult = loadOverheads(new File(ourFile), true);
 
         if (metrics.equals(Metrics.RECALL)) {
             LOGGER.info("start to calc Recall:");
@@ -175,60 +158,16 @@ public class Calc {
         String projectName = "Hadoop";
 
         String resultFile1 = MessageFormat.format(
-                "/home/user/Code/plover/docs/result/{0}_Data_{1}Control_{2}SideEffect_Raw_Result.txt",
+                "/home/user/Code/plover/docs/result/{0}_Data_{1}Control_{2}SideEffect_Result.jsonl",
                 projectName, false?"":"No", false?"":"No");
         String resultFile2 = MessageFormat.format(
-                "/home/user/Code/plover/docs/result/{0}_Data_{1}Control_{2}SideEffect_Raw_Result.txt",
+                "/home/user/Code/plover/docs/result/{0}_Data_{1}Control_{2}SideEffect_Result.jsonl",
                 projectName, true?"":"No", true?"":"No");
 
-        List<String> rawResult1 = FileUtils.readLines(new File(resultFile1));
-        List<String> rawResult2 = FileUtils.readLines(new File(resultFile2));
-        Map<String, List<String>> ourResult1 = new HashMap<>();
-        Map<String, List<String>> ourResult2 = new HashMap<>();
-        String methodName;
-        String methodPattern;
-        String contentPattern;
+        Map<String, List<String>> ourResult1 = loadOverheads(new File(resultFile1), false);
+        Map<String, List<String>> ourResult2 = loadOverheads(new File(resultFile2), false);
         boolean debug = true;
 
-        methodName = "Unknown";
-        methodPattern = "Find overhead at method ";
-        contentPattern = " -> ";
-
-        for (Iterator<String> it = rawResult1.iterator(); it.hasNext();) {
-            String line = it.next();
-            if (line.contains(methodPattern)) {
-                line = line.substring(line.indexOf(methodPattern) + methodPattern.length());
-                methodName = line.substring(0, line.lastIndexOf(" has "));
-                if (!ourResult1.containsKey(methodName)) {
-                    ourResult1.put(methodName, new ArrayList<>());
-                }
-            } else if (line.contains(contentPattern)) {
-                String unit = line.substring(line.indexOf(contentPattern) + contentPattern.length());
-                if (unit.contains(" with ID")) {
-                    unit = unit.substring(0, unit.lastIndexOf(" with ID"));
-                }
-                ourResult1.get(methodName).add(unit);
-            }
-        }
-
-        for (Iterator<String> it = rawResult2.iterator(); it.hasNext();) {
-            String line = it.next();
-            if (line.contains(methodPattern)) {
-                line = line.substring(line.indexOf(methodPattern) + methodPattern.length());
-                methodName = line.substring(0, line.lastIndexOf(" has "));
-                if (!ourResult2.containsKey(methodName)) {
-                    ourResult2.put(methodName, new ArrayList<>());
-                }
-            } else if (line.contains(contentPattern)) {
-                String unit = line.substring(line.indexOf(contentPattern) + contentPattern.length());
-                if (unit.contains(" with ID")) {
-                    unit = unit.substring(0, unit.lastIndexOf(" with ID"));
-                }
-                ourResult2.get(methodName).add(unit);
-            }
-        }
-
-
         for (Map.Entry<String, List<String>> result1Entry : ourResult1.entrySet()) {
             String method = result1Entry.getKey();
             if (ourResult2.containsKey(method)) {
@@ -254,6 +193,25 @@ public class Calc {
 
     }
 
+    /**
+     * Load the units found by {@link plover.guards.MainEntry} from the result stream.
+     * Each unit is keyed as <code>"content AT LINE N"</code>, the same form as the units in the guard benchmark.
+     * @param normalize replace temporary locals <code>tmp$N</code> with <code>tmp</code> to compare with the benchmark
+     * @return method signature -> unit contents with line numbers
+     */
+    public static Map<String, List<String>> loadOverheads(File resultFile, boolean normalize) throws IOException {
+        Map<String, List<String>> result = new HashMap<>();
+        try (ResultSource source = ResultFormat.openSource(resultFile)) {
+            for (OverheadRecord record = source.read(); record != null; record = source.read()) {
+                String unit = record.getUnitContent() + " AT LINE "
+                        + (record.getLineNum() == -1 ? "UNKNOWN" : record.getLineNum());
+                result.computeIfAbsent(record.getMethod(), k -> new ArrayList<>())
+                        .add(normalize ? unit.replaceAll("tmp\\$[0-9]+", "tmp") : unit);
+            }
+        }
+        return result;
+    }
+
     public static void main(String[] args) throws IOException {
         measurement(Metrics.RECALL);
 //        compare();
@@ -1,8 +1,6 @@
 package plover.soot;
 
-import com.google.common.collect.Ordering;
-import plover.soot.graph.GraphHelper;
-import plover.soot.hammock.CFGExit;
+import plover.soot.graph.GuardedRegions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.SootMethod;
@@ -33,7 +31,8 @@ public class GuardFinder extends ForwardFlowAnalysis<Unit, FlowSet> {
     private HashMap<Unit, Set<Unit>> guardedStmts;
     private UnitGraph graph;
     private Set<Unit> backEdges;
-    private DominatorTree<Unit> postDomTree;
+    /* regions guarded by IfStmt, computed for all IfStmts at once */
+    private GuardedRegions guardedRegions;
 
 
     public HashMap<Unit, Set<Unit>> getGuardedStmts() {
@@ -47,9 +46,9 @@ public class GuardFinder extends ForwardFlowAnalysis<Unit, FlowSet> {
         this.loggingMethodSigs = loggingMethodSigs;
         this.emptySet = new ArraySparseSet();
         this.guardedStmts = new HashMap<>();
-        this.postDomTree = new DominatorTree<>(new MHGPostDominatorsFinder<Unit>(graph));
         this.backEdges = new HashSet<>();
         findBackEdge();
+        this.guardedRegions = new GuardedRegions(graph, backEdges);
         doAnalysis();
     }
 
@@ -125,45 +124,24 @@ public class GuardFinder extends ForwardFlowAnalysis<Unit, FlowSet> {
             if (isLoggingGuard) {
                 // initialize guarded statements for logging guard
                 // get blocks guarded by this logging guard
-                // 1. get all forward reachable nodes for both branch
+                // 1. get forward reachable nodes for both branch until they merge at the first common forward reachable node
                 List<Unit> succs = graph.getSuccsOf(unit);
                 if (succs.size() != 2) throw new AssertionError();
-                List<Unit> succ0 = Collections.singletonList(succs.get(0));
-                List<Unit> succ1 = Collections.singletonList(succs.get(1));
-                Set<Unit> reachable0 = GraphHelper.getReachables(graph, succ0, backEdges);
-                Set<Unit> reachable1 = GraphHelper.getReachables(graph, succ1, backEdges);
-                // 2. find the first common forward reachable node (we need to find all back edge first)
-                List<Unit> commonReachable = new ArrayList<>(reachable0);
-                commonReachable.retainAll(reachable1);
-                commonReachable.remove(CFGExit.v());
-                commonReachable.sort(Ordering.explicit(new ArrayList<>(graph.getBody().getUnits())));
-                commonReachable.add(CFGExit.v());
-                if (commonReachable.isEmpty()) throw new AssertionError();
-                if (commonReachable.size() != 1 || commonReachable.get(0) != CFGExit.v()) {
-                    // 3.1. if the node is not EXIT node, get all forward reachable nodes for both branch
-                    // until reaching this node and the keep the branch contains logging calls
-                    Unit firstCommon = commonReachable.get(0);
-                    List<Unit> endUnits = new ArrayList<>(backEdges);
-                    endUnits.add(firstCommon);
-                    Set<Unit> guardedUnits0 = GraphHelper.getReachables(graph, succ0, endUnits);
-                    Set<Unit> guardedUnits1 = GraphHelper.getReachables(graph, succ1, endUnits);
+                Set<Unit> guardedUnits0 = guardedRegions.getRegion(unit, succs.get(0));
+                Set<Unit> guardedUnits1 = guardedRegions.getRegion(unit, succs.get(1));
+                if (guardedRegions.hasMergePoint(unit)) {
+                    // 2.1. if the merge point is not EXIT node, keep the branch contains logging calls
                     boolean hasLoggingCalls0 = hasLoggingCalls(guardedUnits0);
                     boolean hasLoggingCalls1 = hasLoggingCalls(guardedUnits1);
                     LineNumberTag lineNumberTag = (LineNumberTag)unit.getTag("LineNumberTag");
                     if (hasLoggingCalls0 && hasLoggingCalls1) {
                         LOGGER.warn("Both branch of logging guard {} at line {} have logging calls! Need manual examination!",
                                 unit.toString(), lineNumberTag==null?"Unknown":lineNumberTag.getLineNumber());
-                        Set<Unit> result = new HashSet<>();
-                        result.addAll(guardedUnits0);
-                        result.addAll(guardedUnits1);
-                        guardedStmts.put(unit, result);
+                        guardedStmts.put(unit, guardedRegions.getGuardedUnits(unit));
                     } else if (!hasLoggingCalls0 && !hasLoggingCalls1) {
                         LOGGER.warn("Both branch of logging guard {} at line {} don't have logging calls! Need manual examination!",
                                 unit.toString(), lineNumberTag==null?"Unknown":lineNumberTag.getLineNumber());
-                        Set<Unit> result = new HashSet<>();
-                        result.addAll(guardedUnits0);
-                        result.addAll(guardedUnits1);
-                        guardedStmts.put(unit, result);
+                        guardedStmts.put(unit, guardedRegions.getGuardedUnits(unit));
                     } else if (hasLoggingCalls0) {
                         guardedStmts.put(unit, guardedUnits0);
                     } else {
@@ -171,25 +149,22 @@ public class GuardFinder extends ForwardFlowAnalysis<Unit, FlowSet> {
                     }
 
                 } else if (backEdges.contains(unit)) {
-                    // 3.2. if the common node is EXIT node and the guard IfStmt is back edge,
+                    // 2.2. if the merge point is EXIT node and the guard IfStmt is back edge,
                     // which means one succ of the IfStmt is loop header
                     Stmt target = ((IfStmt) unit).getTarget();
-                    if (succ0 == target) {
-                        guardedStmts.put(unit, reachable1);
+                    if (succs.get(0) == target) {
+                        guardedStmts.put(unit, guardedUnits1);
                     } else {
-                        guardedStmts.put(unit, reachable0);
+                        guardedStmts.put(unit, guardedUnits0);
                     }
                 } else {
-                    // 3.2. if the common node is EXIT node and the guard IfStmt is back edge,
+                    // 2.3. if the merge point is EXIT node and the guard IfStmt is not back edge,
                     // which means at least one of the branch stop early
                     // (ends with return / throw) and doesn't merge with another branch.
                     LineNumberTag lineNumberTag = (LineNumberTag)unit.getTag("LineNumberTag");
                     LOGGER.warn("Both branch of logging guard {} at line {} don't merge! Need manual examination!",
                             unit.toString(), lineNumberTag==null?"Unknown":lineNumberTag.getLineNumber());
-                    Set<Unit> result = new HashSet<>();
-                    result.addAll(reachable0);
-                    result.addAll(reachable1);
-                    guardedStmts.put(unit, result);
+                    guardedStmts.put(unit, guardedRegions.getGuardedUnits(unit));
                 }
             }
         }